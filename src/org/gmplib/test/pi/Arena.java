@@ -0,0 +1,157 @@
+package org.gmplib.test.pi;
+
+import java.io.Closeable;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * The numbers of a Chudnovsky run.  Whatever z_new and f_new make is held
+ * until z_free or f_free gives its storage back, which the run does where
+ * the C original calls mpz_clear and mpf_clear, and close() gives back the
+ * rest, so a failed or cancelled run keeps nothing either.  With GMP that
+ * storage is native memory the collector neither sees nor frees in time.
+ * bytes() adds up the sizes last recorded by note(): a number may be read
+ * only by the thread computing it, so sizes are taken at the points where
+ * it is known to sit still.  Safe for the pool threads.
+ */
+public class Arena<Z, F> implements Closeable
+{
+    private final MP<Z, F> mp;
+    private final Map<Z, Long> zs = new IdentityHashMap<Z, Long>();
+    private final Map<F, Long> fs = new IdentityHashMap<F, Long>();
+    private long bytes;
+
+    public Arena(MP<Z, F> mp)
+    {
+	this.mp = mp;
+    }
+
+    public Z z_new()
+        throws MPException
+    {
+	Z z = mp.z_new();
+	synchronized (this) {
+	    zs.put(z, Long.valueOf(0));
+	}
+	return z;
+    }
+
+    public F f_new(long prec)
+        throws MPException
+    {
+	F f = mp.f_new(prec);
+	long n = prec/8 + 8;
+	synchronized (this) {
+	    fs.put(f, Long.valueOf(n));
+	    bytes += n;
+	}
+	return f;
+    }
+
+    /* record the size of z, which no other thread is changing */
+    public void note(Z z)
+        throws MPException
+    {
+	long n = mp.z_sizeinbase(z, 2)/8 + 1;
+	synchronized (this) {
+	    Long old = zs.get(z);
+	    if (old != null) {
+		zs.put(z, Long.valueOf(n));
+		bytes += n - old.longValue();
+	    }
+	}
+    }
+
+    /* give back the storage of z, leaving it 0; null is ignored */
+    public void z_free(Z z)
+        throws MPException
+    {
+	if (z == null) {
+	    return;
+	}
+	synchronized (this) {
+	    Long old = zs.remove(z);
+	    if (old != null) {
+		bytes -= old.longValue();
+	    }
+	}
+	mp.z_release(z);
+    }
+
+    /* z_free every entry of z and clear it */
+    public void z_free_all(Z[] z)
+        throws MPException
+    {
+	int i;
+	for (i = 0; i < z.length; i++) {
+	    z_free(z[i]);
+	    z[i] = null;
+	}
+    }
+
+    public void f_free(F f)
+        throws MPException
+    {
+	if (f == null) {
+	    return;
+	}
+	synchronized (this) {
+	    Long old = fs.remove(f);
+	    if (old != null) {
+		bytes -= old.longValue();
+	    }
+	}
+	mp.f_release(f);
+    }
+
+    public synchronized long bytes()
+    {
+	return bytes;
+    }
+
+    /* numbers not yet given back */
+    public synchronized int count()
+    {
+	return zs.size() + fs.size();
+    }
+
+    /* give back everything still held; nothing may be using it */
+    public void close()
+    {
+	Object[] z, f;
+	int i;
+	synchronized (this) {
+	    z = zs.keySet().toArray();
+	    f = fs.keySet().toArray();
+	    zs.clear();
+	    fs.clear();
+	    bytes = 0;
+	}
+	for (i = 0; i < z.length; i++) {
+	    try {
+		mp.z_release(cast_z(z[i]));
+	    }
+	    catch (MPException e) {
+	    }
+	}
+	for (i = 0; i < f.length; i++) {
+	    try {
+		mp.f_release(cast_f(f[i]));
+	    }
+	    catch (MPException e) {
+	    }
+	}
+    }
+
+    @SuppressWarnings("unchecked")
+    private Z cast_z(Object o)
+    {
+	return (Z)o;
+    }
+
+    @SuppressWarnings("unchecked")
+    private F cast_f(Object o)
+    {
+	return (F)o;
+    }
+}
@@ -0,0 +1,219 @@
+package org.gmplib.test.pi;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Measures the Tuning parameters on this device and backend.  Binary
+ * splitting over the terms for a digit count is timed with each candidate
+ * value of one parameter while the others keep their best values so far,
+ * one parameter after the other; a candidate has to beat the current value
+ * by MIN_GAIN to replace it, so noise leaves the defaults alone.  This is
+ * done for a serial and, with more than one processor, a parallel run, and
+ * both sets are saved in the profile Chudnovsky.setTuningProfile reads.
+ *
+ * From a shell: Autotune [java|gmp] [digits] [profile]
+ */
+public class Autotune<Z, F>
+{
+    static final double[] SPLIT_RATIOS = { 0.5, Tuning.SPLIT_RATIO, 0.55, 0.6, 0.65 };
+    static final int[] GCD_LEVELS = { 2, 3, Tuning.GCD_LEVEL, 5, 6, 8 };
+    static final int[] BS_MUL_LEAVES = { 256, 512, Tuning.BS_MUL_LEAF, 2048, 4096 };
+    private static final double MIN_GAIN = 0.02;
+    /* z_mul is timed at these sizes for Tuning.mul_exponent */
+    private static final long MUL_SMALL = 1L<<16;
+    private static final long MUL_LARGE = 1L<<20;
+
+    public int digits = 100000;
+    public int warmup = 1;
+    public int runs = 3;             /* best of */
+
+    private final MP<Z, F> mp;
+    private Chudnovsky<Z, F> task;
+    private int terms;
+
+    public Autotune(MP<Z, F> mp)
+    {
+	this.mp = mp;
+    }
+
+    public static <Z, F> Autotune<Z, F> create(MP<Z, F> mp)
+    {
+	return new Autotune<Z, F>(mp);
+    }
+
+    /* one line per measurement; the default drops them */
+    protected void report(String line)
+    {
+    }
+
+    /* best time of bs over all terms with t, in milliseconds */
+    private double time(Tuning t)
+        throws MPException
+    {
+	double best = Double.MAX_VALUE;
+	int i;
+	task.tune = t;
+	for (i = 0; i < warmup+runs; i++) {
+	    Chudnovsky<Z, F>.bs_ctx ctx = task.new bs_ctx(task.depth);
+	    double ms;
+	    try {
+		long t0 = System.nanoTime();
+		task.bs_root(ctx, terms);
+		ms = (double)(System.nanoTime() - t0)/1e6;
+	    }
+	    finally {
+		/* the root P, Q and G would otherwise stay in the arena */
+		ctx.release();
+	    }
+	    if (i >= warmup && ms < best) {
+		best = ms;
+	    }
+	}
+	report(String.format(Locale.US, "%-6s %s: %.3f ms", mp.name(), t, best));
+	return best;
+    }
+
+    /* best time of z_mul on two bits-bit numbers, in nanoseconds */
+    private double mul_time(long bits)
+        throws MPException
+    {
+	Z a = mp.z_new();
+	Z b = mp.z_new();
+	Z r = mp.z_new();
+	double best = Double.MAX_VALUE;
+	int reps = (int)Math.max(1, MUL_LARGE/bits);
+	int i, j;
+	/* 3^n and 5^n have dense bit patterns */
+	mp.z_ui_pow_ui(a, 3, (long)((double)bits/1.585));
+	mp.z_ui_pow_ui(b, 5, (long)((double)bits/2.322));
+	for (i = 0; i < warmup+runs; i++) {
+	    long t0 = System.nanoTime();
+	    for (j = 0; j < reps; j++) {
+		mp.z_mul(r, a, b);
+	    }
+	    double ns = (double)(System.nanoTime() - t0)/reps;
+	    if (i >= warmup && ns < best) {
+		best = ns;
+	    }
+	}
+	mp.z_release(a);
+	mp.z_release(b);
+	mp.z_release(r);
+	return best;
+    }
+
+    /* the exponent of z_mul time in operand bits between MUL_SMALL and MUL_LARGE */
+    public double mul_exponent()
+        throws MPException
+    {
+	double e = Math.log(mul_time(MUL_LARGE)/mul_time(MUL_SMALL)) /
+	    Math.log((double)MUL_LARGE/(double)MUL_SMALL);
+	e = Math.max(1.0, Math.min(1.8, e));
+	report(String.format(Locale.US, "%-6s mul_exponent: %.3f", mp.name(), e));
+	return e;
+    }
+
+    /* the best parameter set for a serial or parallel run */
+    public Tuning tune(boolean parallel)
+        throws MPException
+    {
+	Tuning best = new Tuning();
+	Tuning t;
+	double tbest, tt;
+	int i;
+
+	best.mul_exponent = mul_exponent();
+
+	task = Chudnovsky.create(mp);
+	task.setParLevel(parallel ? Chudnovsky.default_par_level() : 0);
+	terms = task.init_terms(digits);
+	task.init_sieve(terms);
+	try {
+	    time(best);         /* warms up the JIT and the caches */
+	    tbest = time(best);
+	    for (i = 0; i < SPLIT_RATIOS.length; i++) {
+		if (SPLIT_RATIOS[i] != best.split_ratio) {
+		    t = best.copy();
+		    t.split_ratio = SPLIT_RATIOS[i];
+		    if ((tt = time(t)) < tbest*(1.0-MIN_GAIN)) {
+			best = t;
+			tbest = tt;
+		    }
+		}
+	    }
+	    for (i = 0; i < GCD_LEVELS.length; i++) {
+		if (GCD_LEVELS[i] != best.gcd_level) {
+		    t = best.copy();
+		    t.gcd_level = GCD_LEVELS[i];
+		    if ((tt = time(t)) < tbest*(1.0-MIN_GAIN)) {
+			best = t;
+			tbest = tt;
+		    }
+		}
+	    }
+	    for (i = 0; i < BS_MUL_LEAVES.length; i++) {
+		if (BS_MUL_LEAVES[i] != best.bs_mul_leaf) {
+		    t = best.copy();
+		    t.bs_mul_leaf = BS_MUL_LEAVES[i];
+		    if ((tt = time(t)) < tbest*(1.0-MIN_GAIN)) {
+			best = t;
+			tbest = tt;
+		    }
+		}
+	    }
+	}
+	finally {
+	    task.arena().close();
+	    task = null;
+	}
+	report(String.format(Locale.US, "%-6s %s best: %s", mp.name(),
+	    (parallel ? "parallel" : "serial"), best));
+	return best;
+    }
+
+    /* tune both kinds of run and save them to profile */
+    public void run(File profile)
+        throws MPException, IOException
+    {
+	Tuning.save(profile, mp.name(), false, tune(false));
+	if (Chudnovsky.default_par_level() > 0) {
+	    Tuning.save(profile, mp.name(), true, tune(true));
+	}
+    }
+
+    private static <Z, F> Autotune<Z, F> console(MP<Z, F> mp)
+    {
+	return new Autotune<Z, F>(mp) {
+	    protected void report(String line)
+	    {
+		System.out.println(line);
+	    }
+	};
+    }
+
+    public static void main(String[] args)
+        throws MPException, IOException
+    {
+	MP<?, ?> mp = Backends.java();
+	File profile = new File("tuning.properties");
+
+	if (args.length > 0 && args[0].equals("gmp")) {
+	    mp = Backends.gmp();
+	    if (mp == null) {
+		System.err.println("Autotune: GMP bridge not available");
+		System.exit(1);
+	    }
+	}
+	Autotune<?, ?> at = console(mp);
+	if (args.length > 1) {
+	    at.digits = Integer.parseInt(args[1]);
+	}
+	if (args.length > 2) {
+	    profile = new File(args[2]);
+	}
+	at.run(profile);
+	System.out.println("Autotune: wrote " + profile);
+    }
+}
@@ -0,0 +1,87 @@
+package org.gmplib.test.pi;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Hexadecimal digits of pi at a position, by the Bailey-Borwein-Plouffe
+ * formula pi = sum 16^-k (4/(8k+1) - 2/(8k+4) - 1/(8k+5) - 1/(8k+6)),
+ * without computing the digits before them: time about linear in the
+ * position, constant memory.  The fractional parts are summed in 64-bit
+ * fixed point, where overflow is exactly the wrap modulo 1.  Each term is
+ * rounded down, so each sum is short by less than n+18 units in 2^-64 and
+ * the result is off by less than 4(n+18) either way, up to 2^29 near
+ * MAX_POSITION.  The 32 bits below the DIGITS digits are the guard: when
+ * that error could carry into the digits, hex returns null instead.
+ */
+public class BBP
+{
+    public static final int DIGITS = 8;
+    /* keeps 8k+j below 2^31, so residues shifted by 32 bits fit a long */
+    public static final long MAX_POSITION = 1L<<27;
+
+    /* 16^e mod m */
+    private static long pow16_mod(long e, long m)
+    {
+	long r = 1 % m;
+	long b = 16 % m;
+	while (e > 0) {
+	    if ((e & 1) != 0) {
+		r = r*b % m;
+	    }
+	    b = b*b % m;
+	    e >>= 1;
+	}
+	return r;
+    }
+
+    /* floor(2^64 * r/m) for 0 <= r < m < 2^31, as an unsigned long */
+    private static long frac(long r, long m)
+    {
+	long hi = (r << 32)/m;
+	long lo = (((r << 32) % m) << 32)/m;
+	return (hi << 32) + lo;
+    }
+
+    /* the fractional part of 16^n sum 16^-k/(8k+j), times 2^64 */
+    private static long series(long n, int j)
+    {
+	long s = 0;
+	long k, m;
+
+	for (k = 0; k <= n; k++) {
+	    if ((k & 0xffff) == 0 && Thread.interrupted()) {
+		throw new CancellationException("interrupted");
+	    }
+	    m = 8*k + j;
+	    s += frac(pow16_mod(n-k, m), m);
+	}
+	/* the terms past n are below 1, and vanish after 16 of them; 2^60 at most */
+	for (k = n+1; k <= n+16; k++) {
+	    m = 8*k + j;
+	    s += (1L << (64 - 4*(int)(k-n)))/m;
+	}
+	return s;
+    }
+
+    /*
+     * the DIGITS hex digits of pi that follow the first n after the point,
+     * or null if they cannot be told apart from their neighbours
+     */
+    public static String hex(long n)
+    {
+	if (n < 0 || n >= MAX_POSITION) {
+	    throw new IllegalArgumentException("BBP position out of range: " + n);
+	}
+	long x = 4*series(n, 1) - 2*series(n, 4) - series(n, 5) - series(n, 6);
+	long err = 4*(n+18);
+	long guard = x & 0xffffffffL;
+	if (guard < err || guard > 0xffffffffL - err) {
+	    return null;
+	}
+	String s = Long.toHexString(x >>> (64 - 4*DIGITS));
+	while (s.length() < DIGITS) {
+	    s = "0" + s;
+	}
+	return s;
+    }
+}
@@ -0,0 +1,47 @@
+package org.gmplib.test.pi;
+
+import org.gmplib.gmpjni.GMP;
+
+/**
+ * Chooses the MP backend for a computation.  GMP is used when the native
+ * bridge loads, except for digit counts up to java_max_digits where the
+ * JNI call overhead outweighs the faster arithmetic.
+ */
+public class Backends
+{
+    private static final JavaMP java = new JavaMP();
+    private static GmpMP gmp;
+    private static boolean probed;
+
+    public static int java_max_digits = 1000;
+
+    public static JavaMP java()
+    {
+	return java;
+    }
+
+    /* the GMP backend, or null when the native library is not available */
+    public static synchronized GmpMP gmp()
+    {
+	if (!probed) {
+	    probed = true;
+	    try {
+		GMP.init();
+		gmp = new GmpMP();
+	    }
+	    catch (Throwable e) {
+		gmp = null;
+	    }
+	}
+	return gmp;
+    }
+
+    public static MP<?, ?> select(int digits)
+    {
+	MP<?, ?> g = gmp();
+	if (g == null || digits <= java_max_digits) {
+	    return java;
+	}
+	return g;
+    }
+}
@@ -0,0 +1,2765 @@
+/* Pi computation using Chudnovsky's algorithm.
+
+ * Copyright 2002, 2005 Hanhong Xue (macroxue at yahoo dot com)
+
+ * Slightly modified 2005 by Torbjorn Granlund to allow more than 2G
+   digits to be computed.
+   
+ * 2016: Ported to Java, using GMP through JNI, by Andy Quick.
+
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHORS ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.  IN NO
+ * EVENT SHALL THE AUTHORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.gmplib.test.pi;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+//import org.gmplib.gmpjni.GMP.randstate_t;
+
+/*
+ * The computation itself, in plain Java: PI_Task runs it as an Android
+ * AsyncTask, PI_Cli from a shell.  Log lines, progress and the question
+ * whether to go on go through a Listener.  Z and F are the integer and
+ * float types of the MP backend it runs on; see Backends.select for how
+ * one is chosen.
+ */
+public class Chudnovsky<Z, F>
+{
+
+    /** What a run reports to, and asks whether it should go on. */
+    public interface Listener
+    {
+	void log(String line);
+	void progress(int percent, long eta_millis);
+	boolean isCancelled();
+    }
+
+    static final long A =  13591409;
+    static final long B =  545140134;
+    static final long C =  640320;
+    private static final long D =  12;
+
+    static final double BITS_PER_DIGIT  =  3.32192809488736234787;
+    static final double DIGITS_PER_ITER =  14.1816474627254776555;
+    private static final int DOUBLE_PREC =     53;
+
+    private Listener listener;
+    private File reference;
+    private final MP<Z, F> mp;
+    private final Metrics metrics;
+    private File metrics_file;
+    
+    F t1;
+    F t2;
+
+    /* the numbers of the current run; a fresh one per run */
+    private volatile Arena<Z, F> arena;
+    
+    public Chudnovsky(MP<Z, F> mp)
+    {
+	this.mp = mp;
+	out = 1; // 3;
+	par_level = default_par_level();
+	arena = new Arena<Z, F>(mp);
+	metrics = new Metrics();
+	metrics.gauge("arena_bytes", new Metrics.Gauge() {
+	    public long value()
+	    {
+		return arena.bytes();
+	    }
+	});
+	metrics.gauge("spill_held", new Metrics.Gauge() {
+	    public long value()
+	    {
+		AtomicLong h = spill_held;
+		return (h != null ? h.get() : 0);
+	    }
+	});
+    }
+
+    public static <Z, F> Chudnovsky<Z, F> create(MP<Z, F> mp)
+    {
+	return new Chudnovsky<Z, F>(mp);
+    }
+
+    public void setListener(Listener l)
+    {
+	listener = l;
+    }
+
+    private void log(String line)
+    {
+	if (listener != null) {
+	    listener.log(line);
+	}
+    }
+
+    /* digits to check the result against, text or PackedDigits; null for none */
+    public void setReference(File f)
+    {
+	reference = f;
+    }
+
+    /* the out flags of the C program: 1 logs the numbers, 2 debug output */
+    public void setOut(int out)
+    {
+	this.out = out;
+    }
+
+    public void setParLevel(int level)
+    {
+	par_level = level;
+    }
+
+    /*
+     * Keep the sieve after a run, for the next run of at most as many
+     * terms to use rather than build its own.
+     */
+    public void setKeepSieve(boolean keep)
+    {
+	keep_sieve = keep;
+    }
+
+    /*
+     * Start sieving in the background for runs of up to d digits and keep
+     * the sieve, so that a batch sieves once, for its largest job.
+     */
+    public void prepareSieve(int d)
+    {
+	keep_sieve = true;
+	start_init_sieve((int)((double)d/DIGITS_PER_ITER));
+    }
+
+    /*
+     * Compute the constant of s, summed by Hypergeometric, instead of pi by
+     * the factored Chudnovsky splitting; null for pi.  Such runs use neither
+     * the result cache nor checkpoints.
+     */
+    public void setSeries(Series s)
+    {
+	series = s;
+    }
+
+    /*
+     * Let series runs cut the operands of their top merges to the working
+     * precision plus TRUNC_GUARD bits, as Hypergeometric describes.  If the
+     * error bound comes out too large the sum is done again whole.  Pi runs
+     * ignore it: the factors bs removes leave the operands of its top merges
+     * shorter than the precision, so there would be nothing to cut.
+     */
+    public void setTruncatedMerges(boolean truncate)
+    {
+	this.truncate = truncate;
+    }
+
+    /*
+     * Check the last hex digits the result holds against BBP, which finds
+     * them without the rest; the outcome goes in the result text.  This
+     * verifies digits past the end of any reference file.
+     */
+    public void setHexCheck(boolean check)
+    {
+	hex_check = check;
+    }
+
+    /* whether the hex digits of the last run disagreed with BBP */
+    public boolean isHexMismatch()
+    {
+	return hex_mismatch;
+    }
+
+    /*
+     * Check P and Q at the root of bs against ModCheck's sums modulo a few
+     * primes, computed alongside bs; the outcome goes in the result text.
+     * It needs no reference and costs about nothing.
+     */
+    public void setModCheck(boolean check)
+    {
+	mod_check = check;
+    }
+
+    /* whether P and Q of the last run disagreed with ModCheck */
+    public boolean isModMismatch()
+    {
+	return mod_mismatch;
+    }
+
+    /* the numbers of the current run, or of the last when none is running */
+    Arena<Z, F> arena()
+    {
+	return arena;
+    }
+
+    /* the verifier of the last run, null if it had no reference */
+    public DigitVerifier getVerifier()
+    {
+	return last_verifier;
+    }
+
+    private static long cputime()
+    {
+	return System.nanoTime();
+    }
+
+    public Metrics getMetrics()
+    {
+	return metrics;
+    }
+
+    /* write getMetrics().toJSON() to f at the end of each run */
+    public void setMetricsFile(File f)
+    {
+	metrics_file = f;
+    }
+
+    private void metrics_save()
+    {
+	try {
+	    Writer w = new OutputStreamWriter(new FileOutputStream(metrics_file), "UTF-8");
+	    try {
+		w.write(metrics.toJSON());
+	    }
+	    finally {
+		w.close();
+	    }
+	}
+	catch (IOException e) {
+	    log("metrics: cannot write " + metrics_file);
+	}
+    }
+    
+    /* r = sqrt(x) */
+    void my_sqrt_ui(F r, long x)
+        throws MPException
+    {
+        my_sqrt_ui(r, x, t1, t2);
+    }
+
+    /*
+     * r = sqrt(x) with scratch t1 and t2, which need the precision of r.
+     * Every float carries its own precision, so with scratch of its own
+     * this can run on any thread at the same time as the rest of the run.
+     */
+    void my_sqrt_ui(F r, long x, F t1, F t2)
+        throws MPException
+    {
+        long prec, bits, prec0;
+
+        prec0 = mp.f_get_prec(r);
+
+        if (prec0<=DOUBLE_PREC) {
+            mp.f_set_d(r, Math.sqrt((double)x));
+            return;
+        }
+
+        bits = 0;
+        for (prec=prec0; prec>DOUBLE_PREC;) {
+            int bit = (int)(prec & 1);
+            prec = (prec+bit)/2;
+            bits = bits*2+bit;
+        }
+
+        mp.f_set_prec_raw(t1, DOUBLE_PREC);
+        mp.f_set_d(t1, 1.0/Math.sqrt((double)x));
+
+        while (prec<prec0) {
+            check_cancel();
+            prec *=2;
+            if (prec<prec0) {
+                /* t1 = t1+t1*(1-x*t1*t1)/2; */
+                mp.f_set_prec_raw(t2, prec);
+                mp.f_mul(t2, t1, t1);         /* half x half -> full */
+                mp.f_mul_ui(t2, t2, x);
+                mp.f_ui_sub(t2, 1, t2);
+                mp.f_set_prec_raw(t2, prec/2);
+                mp.f_div_2exp(t2, t2, 1);
+                mp.f_mul(t2, t2, t1);         /* half x half -> half */
+                mp.f_set_prec_raw(t1, prec);
+                mp.f_add(t1, t1, t2);
+            } else {
+                break;
+            }
+            prec -= (bits&1);
+            bits /=2;
+        }
+        /* t2=x*t1, t1 = t2+t1*(x-t2*t2)/2; */
+        mp.f_set_prec_raw(t2, prec0/2);
+        mp.f_mul_ui(t2, t1, x);
+        mp.f_mul(r, t2, t2);          /* half x half -> full */
+        mp.f_ui_sub(r, x, r);
+        mp.f_mul(t1, t1, r);          /* half x half -> half */
+        mp.f_div_2exp(t1, t1, 1);
+        mp.f_add(r, t1, t2);
+    }
+
+    /* the precisions of the Newton steps up to prec0, each at most twice the last */
+    private static long[] newton_steps(long prec0)
+    {
+        long[] steps = new long[64];
+        long[] r;
+        long prec;
+        int i, n = 0;
+        for (prec=prec0; prec>DOUBLE_PREC; prec=(prec+1)/2) {
+            steps[n++] = prec;
+        }
+        r = new long[n];
+        for (i=0; i<n; i++) {
+            r[i] = steps[n-1-i];
+        }
+        return r;
+    }
+
+    /* a (0 < a < 2^1023) as a double, good to about 17 digits */
+    private double f_get_d(F a)
+        throws MPException
+    {
+        int[] exp = new int[1];
+        String s = mp.f_get_str(exp, 10, 17, a);
+        return Double.parseDouble("0." + s + "E" + exp[0]);
+    }
+
+    /*
+     * r = 1/sqrt(x) to the precision of r, by r += r*(1-x*r*r)/2 with the
+     * precision doubling each step.  t is scratch of the same precision.
+     */
+    void my_rsqrt_ui(F r, long x, F t)
+        throws MPException
+    {
+        long prec0 = mp.f_get_prec(r);
+
+        mp.f_set_prec_raw(r, DOUBLE_PREC);
+        mp.f_set_d(r, 1.0/Math.sqrt((double)x));
+        for (long prec : newton_steps(prec0)) {
+            check_cancel();
+            mp.f_set_prec_raw(t, prec);
+            mp.f_mul(t, r, r);            /* half x half -> full */
+            mp.f_mul_ui(t, t, x);
+            mp.f_ui_sub(t, 1, t);
+            mp.f_set_prec_raw(t, prec/2);
+            mp.f_div_2exp(t, t, 1);
+            mp.f_mul(t, t, r);            /* half x half -> half */
+            mp.f_set_prec_raw(r, prec);
+            mp.f_add(r, r, t);
+        }
+        mp.f_set_prec_raw(r, prec0);
+        mp.f_set_prec_raw(t, prec0);
+    }
+
+    /*
+     * r = 1/a to the precision of r, by r += r*(1-a*r) with the precision
+     * doubling each step; a > 0 is an integer of abits bits.  t is scratch
+     * of the same precision.
+     */
+    void my_recip(F r, F a, long abits, F t)
+        throws MPException
+    {
+        long prec0 = mp.f_get_prec(r);
+        long shift = Math.max(0, abits-DOUBLE_PREC);
+        double d;
+
+        /* a/2^shift fits a double */
+        mp.f_set_prec_raw(t, DOUBLE_PREC);
+        mp.f_div_2exp(t, a, shift);
+        d = f_get_d(t);
+        if (!(d > 0)) {
+            throw new MPException("my_recip: not positive: " + d);
+        }
+        mp.f_set_prec_raw(r, DOUBLE_PREC);
+        mp.f_set_d(r, 1.0/d);
+        mp.f_div_2exp(r, r, shift);
+        for (long prec : newton_steps(prec0)) {
+            check_cancel();
+            mp.f_set_prec_raw(t, prec);
+            mp.f_mul(t, a, r);            /* full x half -> full */
+            mp.f_ui_sub(t, 1, t);
+            mp.f_set_prec_raw(t, prec/2);
+            mp.f_mul(t, t, r);            /* half x half -> half */
+            mp.f_set_prec_raw(r, prec);
+            mp.f_add(r, r, t);
+        }
+        mp.f_set_prec_raw(r, prec0);
+        mp.f_set_prec_raw(t, prec0);
+    }
+
+    /* decimal digits per leaf of the conversion */
+    private static final int CONV_LEAF = 2048;
+
+    /*
+     * Send x (x >= 0) to sink with n digits after the point, truncated.
+     * x*10^n is made an integer and split by the powers 10^(CONV_LEAF*2^i),
+     * high part first, so the digits come out in order and no string longer
+     * than CONV_LEAF is ever built.  Uses t2.
+     */
+    void f_out_digits(DigitSink sink, F x, int n)
+        throws MPException, IOException
+    {
+        Z z = arena.z_new();
+        Z[] pow;
+        String ip;
+        long total;
+        int exp, i, k;
+
+        mp.z_set_f(z, x);
+        ip = mp.z_get_str(10, z);
+        exp = (ip.equals("0") ? 0 : ip.length());
+
+        mp.z_ui_pow_ui(z, 10, n);
+        mp.f_set_prec_raw(t2, mp.f_get_prec(x));
+        mp.f_set_z(t2, z);
+        mp.f_mul(t2, x, t2);
+        mp.z_set_f(z, t2);
+        arena.note(z);
+
+        total = (long)exp + n;
+        for (k=0; ((long)CONV_LEAF<<k) < total; k++) ;
+        pow = new_z_array(k);
+        for (i=0; i<k; i++) {
+            pow[i] = arena.z_new();
+            if (i == 0) {
+                mp.z_ui_pow_ui(pow[i], 10, CONV_LEAF);
+            } else {
+                mp.z_mul(pow[i], pow[i-1], pow[i-1]);
+            }
+            arena.note(pow[i]);
+        }
+
+        try {
+            sink.begin(exp);
+            conv_digits(sink, z, total, pow, new char[CONV_LEAF]);
+            sink.end();
+        }
+        finally {
+            for (i=0; i<k; i++) {
+                arena.z_free(pow[i]);
+            }
+        }
+    }
+
+    /* the n low digits of x, zero-padded; frees x */
+    private void conv_digits(DigitSink sink, Z x, long n, Z[] pow, char[] buf)
+        throws MPException, IOException
+    {
+        Z q, r;
+        int i, len;
+
+        check_cancel();
+        if (n <= CONV_LEAF) {
+            String s = mp.z_get_str(10, x);
+            arena.z_free(x);
+            len = s.length();
+            for (i=0; i<n-len; i++) {
+                buf[i] = '0';
+            }
+            s.getChars(0, len, buf, (int)n-len);
+            sink.digits(buf, 0, (int)n);
+            return;
+        }
+        for (i=0; ((long)CONV_LEAF<<(i+1)) < n; i++) ;
+        q = arena.z_new();
+        r = arena.z_new();
+        mp.z_tdiv_qr(q, r, x, pow[i]);
+        arena.z_free(x);
+        conv_digits(sink, q, n-((long)CONV_LEAF<<i), pow, buf);
+        conv_digits(sink, r, (long)CONV_LEAF<<i, pow, buf);
+    }
+    
+    static class fac_t
+    {
+	public int max_facs;
+	public int num_facs;
+	public int[] fac;
+	public int[] pow;
+    }
+
+    /*
+     * sieve[n/2] is the smallest prime factor of the odd number n, or 0 if n
+     * is prime.  The factor of a composite n is at most sqrt(n), so a char
+     * holds it for every n below 2^32.
+     */
+    private char[] sieve;
+    private int sieve_size;
+    private boolean keep_sieve;
+    private DigitVerifier last_verifier;
+    private Series series;
+    private boolean truncate;
+    private boolean hex_check;
+    private volatile boolean hex_mismatch;
+    private boolean mod_check;
+    private boolean mod_mismatch;
+    private volatile int sieve_ready;   /* sieve[0..sieve_ready) is final */
+    private final Object sieve_lock = new Object();
+    private sieve_job sieve_cur;        /* the build sieve_ready follows */
+
+    /* how often a sieve wait looks at check_cancel */
+    private static final long SIEVE_POLL_MS = 100;
+
+    /* odd numbers per block of the segmented sieve: 64KB of table */
+    private static final int SIEVE_SEGMENT = 1<<15;
+
+    private static final int INIT_FACS = 32;
+    
+    private static int min(int x, int y) { return (x < y ? x : y);}
+    private static int max(int x, int y) { return (x > y ? x : y);}
+
+    /* dst = src, in dst's own arrays */
+    static void fac_copy(fac_t dst, fac_t src)
+    {
+        fac_resize(dst, src.num_facs);
+        System.arraycopy(src.fac, 0, dst.fac, 0, src.num_facs);
+        System.arraycopy(src.pow, 0, dst.pow, 0, src.num_facs);
+        dst.num_facs = src.num_facs;
+    }
+
+    /*
+     * A number below 2^32 has at most one prime factor above 2^16, so a
+     * factor list covering n terms (three such numbers each) holds at most
+     * 3n primes plus the SMALL_PRIMES primes below 2^16; and never more than
+     * there are primes in the sieve.
+     */
+    private static final int SMALL_PRIMES = 6542;
+
+    /* Rosser and Schoenfeld: pi(x) < 1.25506 x/ln x */
+    private static int prime_bound(int x)
+    {
+        return (int)(1.25506*(double)x/Math.log((double)x)) + 1;
+    }
+
+    /* room for the factor lists of any node at this level or deeper */
+    int fac_capacity(int level)
+    {
+        long span = nterms;
+        int i;
+        for (i=0; i<level && span>1; i++) {
+            span = (long)((double)span*tune.split_ratio) + 1;
+        }
+        return (int)Math.min(3*span + SMALL_PRIMES, (long)prime_bound(sieve_size_for(nterms)));
+    }
+
+    private void fac_show(String prefix, fac_t f)
+    {
+	StringBuffer sb = new StringBuffer();
+        int i;
+        for (i=0; i<f.num_facs; i++) {
+            if (f.pow[i]==1) {
+                sb.append(f.fac[i]);
+                sb.append(' ');
+            } else {
+                sb.append(f.fac[i]);
+                sb.append("^");
+                sb.append(f.pow[i]);
+                sb.append(' ');
+            }
+        }
+        log(prefix + sb.toString());
+    }
+
+    private static void fac_reset(fac_t f)
+    {
+        f.num_facs = 0;
+    }
+
+    static void fac_init_size(fac_t f, int s)
+    {
+        if (s<INIT_FACS) {
+            s=INIT_FACS;
+        }
+
+        f.fac  = new int[s]; // malloc(s*sizeof(unsigned long)*2);
+        f.pow  = new int[s]; // f[0].pow  = f[0].fac + s;
+        f.max_facs = s;
+
+        fac_reset(f);
+    }
+
+    static void fac_init(fac_t f)
+    {
+        fac_init_size(f, INIT_FACS);
+    }
+
+    private static void fac_clear(fac_t f)
+    {
+        f.fac = null;
+        f.pow = null;
+    }
+
+    private static void fac_resize(fac_t f, int s)
+    {
+        if (f.fac == null || f.max_facs < s) {
+            fac_clear(f);
+            fac_init_size(f, s);
+        }
+    }
+
+    /* f = base^pow */
+    void fac_set_bp(fac_t f, int base, int pow)
+        throws MPException
+    {
+        int i, p, e;
+        assert(base<sieve_size);
+        if (base/2 >= sieve_ready) {
+            sieve_wait(base/2);
+        }
+        for (i=0; base>1; i++) {
+            p = sieve[base/2];
+            if (p == 0) {
+                p = base;
+            }
+            e = 0;
+            do {
+                base /= p;
+                e++;
+            } while (base%p == 0);
+            f.fac[i] = p;
+            f.pow[i] = e*pow;
+        }
+        f.num_facs = i;
+        assert(i<=f.max_facs);
+    }
+
+    /* r = f*g */
+    static void fac_mul2(fac_t r, fac_t f, fac_t g)
+    {
+        int i, j, k;
+
+        for (i=j=k=0; i<f.num_facs && j<g.num_facs; k++) {
+            if (f.fac[i] == g.fac[j]) {
+                r.fac[k] = f.fac[i];
+                r.pow[k] = f.pow[i] + g.pow[j];
+                i++; j++;
+            } else if (f.fac[i] < g.fac[j]) {
+                r.fac[k] = f.fac[i];
+                r.pow[k] = f.pow[i];
+                i++;
+            } else {
+                r.fac[k] = g.fac[j];
+                r.pow[k] = g.pow[j];
+                j++;
+            }
+        }
+        for (; i<f.num_facs; i++, k++) {
+            r.fac[k] = f.fac[i];
+            r.pow[k] = f.pow[i];
+        }
+        for (; j<g.num_facs; j++, k++) {
+            r.fac[k] = g.fac[j];
+            r.pow[k] = g.pow[j];
+        }
+        r.num_facs = k;
+        assert(k<=r.max_facs);
+    }
+
+    /* f *= g, through ctx.fmul and back into f's own arrays */
+    private void fac_mul(bs_ctx ctx, fac_t f, fac_t g)
+    {
+        fac_resize(ctx.fmul, f.num_facs + g.num_facs);
+        fac_mul2(ctx.fmul, f, g);
+        fac_copy(f, ctx.fmul);
+    }
+
+    /* f *= base^pow */
+    void fac_mul_bp(bs_ctx ctx, fac_t f, int base, int pow)
+        throws MPException
+    {
+        fac_set_bp(ctx.ftmp, base, pow);
+        fac_mul(ctx, f, ctx.ftmp);
+    }
+
+    /* remove factors of power 0 */
+    private static void fac_compact(fac_t f)
+    {
+        int i, j;
+        for (i=0, j=0; i<f.num_facs; i++) {
+            if (f.pow[i]>0) {
+                if (j<i) {
+                    f.fac[j] = f.fac[i];
+                    f.pow[j] = f.pow[i];
+                }
+                j++;
+            }
+        }
+        f.num_facs = j;
+    }
+
+    /* products of at least this many bits fork their halves to the pool */
+    private static final long BS_MUL_PAR = 1L<<20;
+    /* largest multiplier passed to z_mul_ui: unsigned long may be 32 bits */
+    private static final long UI_MAX = 0xffffffffL;
+
+    private static int bitlen(int x)
+    {
+        return 32 - Integer.numberOfLeadingZeros(x);
+    }
+
+    /*
+     * Convert factorized form to number: r = prod fac[i]^pow[i] over
+     * [a,b) of ctx.fmul.  A product tree split at half the bits rather
+     * than half the factors, so both operands of every z_mul are about
+     * the same size.
+     */
+    void bs_mul(bs_ctx ctx, Z r, int a, int b)
+        throws MPException
+    {
+        fac_t fmul = ctx.fmul;
+        long[] w;
+        int i;
+
+        if (ctx.fbits == null || ctx.fbits.length < b+1) {
+            ctx.fbits = new long[b+1];
+        }
+        w = ctx.fbits;
+        w[a] = 0;
+        for (i=a; i<b; i++) {
+            w[i+1] = w[i] + (long)fmul.pow[i]*bitlen(fmul.fac[i]);
+        }
+        mul_tree(fmul, w, r, a, b, ctx.mulz, 0);
+    }
+
+    private Z scratch(Z[] s, int i)
+        throws MPException
+    {
+        if (s[i] == null) {
+            s[i] = arena.z_new();
+        }
+        return s[i];
+    }
+
+    /* r = product over [a,b); w[i] is the bit weight of [0,i), s[level..] is free scratch */
+    private void mul_tree(final fac_t f, final long[] w, Z r, final int a, final int b, Z[] s, int level)
+        throws MPException
+    {
+        int m, lo, hi;
+        long half;
+
+        check_cancel();
+        if (b-a == 1 || w[b]-w[a] <= tune.bs_mul_leaf || level == s.length-1) {
+            mul_leaf(f, r, a, b, scratch(s, level));
+            return;
+        }
+
+        /* first m with w[m] >= the midpoint, kept inside (a,b) */
+        half = (w[a]+w[b])/2;
+        lo = a+1;
+        hi = b-1;
+        while (lo < hi) {
+            m = (lo+hi)/2;
+            if (w[m] < half) {
+                lo = m+1;
+            } else {
+                hi = m;
+            }
+        }
+        m = lo;
+
+        final Z t = scratch(s, level);
+        if (pool != null && w[b]-w[a] >= BS_MUL_PAR) {
+            final int lm = m;
+            final int ll = level+1;
+            final Z[] ls = new_z_array(s.length);
+            Future<?> left = pool.submit(new Callable<Void>() {
+                public Void call()
+                    throws MPException
+                {
+                    mul_tree(f, w, t, a, lm, ls, ll);
+                    return null;
+                }
+            });
+            mul_tree(f, w, r, m, b, s, level+1);
+            join(left);
+            arena.z_free_all(ls);
+        } else {
+            mul_tree(f, w, t, a, m, s, level+1);
+            mul_tree(f, w, r, m, b, s, level+1);
+        }
+        mp.z_mul(r, r, t);
+    }
+
+    /*
+     * Small factors are collected into one word before each z_mul_ui; a
+     * power too big for a word comes from z_ui_pow_ui instead of pow[i]
+     * separate multiplications.
+     */
+    private void mul_leaf(fac_t f, Z r, int a, int b, Z tmp)
+        throws MPException
+    {
+        long acc = 1;
+        int i, j, p, e;
+
+        mp.z_set_ui(r, 1);
+        for (i=a; i<b; i++) {
+            p = f.fac[i];
+            e = f.pow[i];
+            if (e > 1 && (long)e*bitlen(p) > 32) {
+                mp.z_ui_pow_ui(tmp, p, e);
+                mp.z_mul(r, r, tmp);
+                continue;
+            }
+            for (j=0; j<e; j++) {
+                if (acc > UI_MAX/p) {
+                    mp.z_mul_ui(r, r, acc);
+                    acc = 1;
+                }
+                acc *= p;
+            }
+        }
+        if (acc > 1) {
+            mp.z_mul_ui(r, r, acc);
+        }
+    }
+
+    /* f /= gcd(f,g), g /= gcd(f,g) */
+    void fac_remove_gcd(bs_ctx ctx, Z p, fac_t fp, Z g, fac_t fg)
+        throws MPException
+    {
+        fac_t fmul = ctx.fmul;
+        int i, j, k, c;
+        fac_resize(fmul, min(fp.num_facs, fg.num_facs));
+        for (i=j=k=0; i<fp.num_facs && j<fg.num_facs; ) {
+            if (fp.fac[i] == fg.fac[j]) {
+                c = min(fp.pow[i], fg.pow[j]);
+                fp.pow[i] -= c;
+                fg.pow[j] -= c;
+                fmul.fac[k] = fp.fac[i];
+                fmul.pow[k] = c;
+                i++; j++; k++;
+            } else if (fp.fac[i] < fg.fac[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        fmul.num_facs = k;
+        assert(k <= fmul.max_facs);
+
+        if (fmul.num_facs != 0) {
+            bs_mul(ctx, ctx.gcd, 0, fmul.num_facs);
+            mp.z_divexact(p, p, ctx.gcd);
+            mp.z_divexact(g, g, ctx.gcd);
+            fac_compact(fp);
+            fac_compact(fg);
+        }
+    }
+
+    /*
+     * Working state of one thread of binary splitting: the p/q/g stacks
+     * indexed by top, and the scratch factor lists and gcd used by fac_mul
+     * and fac_remove_gcd.  Each subtree forked to the pool gets its own
+     * context, so concurrent subtrees never share a buffer.
+     *
+     * Entry i only ever holds nodes of level level0+i or deeper, so its
+     * factor lists are allocated once at fac_capacity(level0+i) and results
+     * are copied into them rather than swapped; bs allocates no fac_t
+     * storage after this.
+     */
+    class bs_ctx
+    {
+	public Z[] pstack;
+	public Z[] qstack;
+	public Z[] gstack;
+	public fac_t[] fpstack;
+	public fac_t[] fgstack;
+	public int     top;
+	public fac_t   ftmp;
+	public fac_t   fmul;
+	public Z   gcd;
+	public long[] fbits;     /* bs_mul weights */
+	public Z[] mulz;         /* bs_mul scratch, one per tree level */
+
+	public bs_ctx(int depth)
+	    throws MPException
+	{
+	    this(depth, 0);
+	}
+
+	public bs_ctx(int depth, int level0)
+	    throws MPException
+	{
+	    int i;
+	    pstack = new_z_array(depth);
+	    qstack = new_z_array(depth);
+	    gstack = new_z_array(depth);
+	    fpstack = new fac_t[depth];
+	    fgstack = new fac_t[depth];
+	    for (i=0; i<depth; i++) {
+		pstack[i] = arena.z_new();
+		qstack[i] = arena.z_new();
+		gstack[i] = arena.z_new();
+		fpstack[i] = new fac_t();
+		fgstack[i] = new fac_t();
+		fac_init_size(fpstack[i], fac_capacity(level0+i));
+		fac_init_size(fgstack[i], fac_capacity(level0+i));
+	    }
+	    top = 0;
+	    ftmp = new fac_t();
+	    fmul = new fac_t();
+	    fac_init(ftmp);
+	    fac_init_size(fmul, fac_capacity(level0));
+	    gcd = arena.z_new();
+	    fbits = new long[fac_capacity(level0)+1];
+	    mulz = new_z_array(64);
+	}
+
+	/* give back the storage of the numbers */
+	public void release()
+	{
+	    try {
+		release_all(pstack, 0);
+		release_all(qstack, 0);
+		release_all(gstack, 0);
+		release_all(mulz, 0);
+		arena.z_free(gcd);
+		gcd = null;
+	    }
+	    catch (MPException e) {
+	    }
+	}
+
+	/* give back z[from..] */
+	void release_all(Z[] z, int from)
+	    throws MPException
+	{
+	    int i;
+	    if (z == null) {
+		return;
+	    }
+	    for (i=from; i<z.length; i++) {
+		arena.z_free(z[i]);
+		z[i] = null;
+	    }
+	}
+
+	/* take entry src.top of src into entry top: the numbers are
+	   exchanged, the factor lists copied into this context's arrays */
+	public void swap_top(bs_ctx src)
+	{
+	    Z z;
+	    z = pstack[top]; pstack[top] = src.pstack[src.top]; src.pstack[src.top] = z;
+	    z = qstack[top]; qstack[top] = src.qstack[src.top]; src.qstack[src.top] = z;
+	    z = gstack[top]; gstack[top] = src.gstack[src.top]; src.gstack[src.top] = z;
+	    fac_copy(fpstack[top], src.fpstack[src.top]);
+	    fac_copy(fgstack[top], src.fgstack[src.top]);
+	}
+    }
+
+    @SuppressWarnings("unchecked")
+    private Z[] new_z_array(int n)
+    {
+	return (Z[])new Object[n];
+    }
+
+    int out;
+    int       depth;
+    int       nterms;
+    private int       par_level;     /* fork subtrees above this level */
+    private ExecutorService pool;
+    Tuning    tune = new Tuning();
+    private File      tune_profile;  /* null: the defaults */
+    private Progress  progress;      /* null: no progress reports */
+    private volatile int progresspct;
+    private long      time_budget;   /* milliseconds, 0: none */
+    private long      mem_budget;    /* bytes, 0: none */
+    private boolean   downgrade;     /* fewer digits rather than no run */
+    private long      deadline;      /* System.nanoTime() */
+    private long      mem_base;      /* in use before the run */
+    private volatile String abort_reason;  /* non-null: stop the run */
+
+    /* bytes per digit a serial run needs at its peak, with room for garbage */
+    private static final long MEM_PER_DIGIT = 12;
+
+    /* every two forked subtrees hold about as much again as a serial run */
+    private static long mem_estimate(long d, int par_level)
+    {
+        return d*MEM_PER_DIGIT*(1 + (1L<<par_level)/2);
+    }
+
+    /*
+     * Give up a run that takes longer than millis or holds more than bytes
+     * of heap and native memory (0 for no limit).  With downgrade, a request
+     * whose estimate does not fit in bytes runs with fewer forked subtrees,
+     * or if even a serial run does not fit, with the digits that do, instead
+     * of being refused.
+     */
+    public void setBudget(long millis, long bytes, boolean downgrade)
+    {
+        time_budget = millis;
+        mem_budget = bytes;
+        this.downgrade = downgrade;
+    }
+
+    /* make every thread of the run stop at its next check_cancel; the first reason stays */
+    synchronized void fail(String reason)
+    {
+        if (abort_reason == null) {
+            abort_reason = reason;
+        }
+    }
+
+    private void abort(String reason)
+    {
+        fail(reason);
+        throw new CancellationException(abort_reason);
+    }
+
+    /* throws CancellationException once the run is cancelled, failed or out of time */
+    void check_cancel()
+    {
+        if (abort_reason != null) {
+            throw new CancellationException(abort_reason);
+        }
+        if (listener != null && listener.isCancelled()) {
+            abort("cancelled");
+        }
+        if (deadline != 0 && System.nanoTime()-deadline > 0) {
+            abort("time budget of " + time_budget + " ms exceeded");
+        }
+    }
+
+    private long mem_in_use()
+    {
+        return metrics.gauge("heap_used") + Math.max(0, metrics.gauge("native_heap"));
+    }
+
+    /* throws CancellationException when the run holds more than mem_budget */
+    void check_memory()
+    {
+        if (mem_budget <= 0 || mem_in_use()-mem_base <= mem_budget) {
+            return;
+        }
+        /* heap_used counts garbage too */
+        System.gc();
+        if (mem_in_use()-mem_base > mem_budget) {
+            abort("memory budget of " + mem_budget + " bytes exceeded");
+        }
+    }
+    private File      spill_dir;     /* null: never spill */
+    private long      spill_budget;  /* bytes of parked stack entries */
+    private AtomicLong spill_held;
+
+    /* entries smaller than this are not worth a file */
+    private static final long SPILL_MIN = 1L<<20;
+
+    /*
+     * Take the tuning parameters from the Autotune profile f, picking the
+     * set for this backend and for a serial or parallel run.
+     */
+    public void setTuningProfile(File f)
+    {
+        tune_profile = f;
+    }
+
+    /*
+     * Let bs park stack entries in files under dir while the other half of
+     * their node is computed, whenever keeping them would put more than
+     * budget bytes of parked entries in memory.
+     */
+    public void setSpill(File dir, long budget)
+    {
+        spill_dir = dir;
+        spill_budget = budget;
+    }
+
+    /* an entry of the p/q/g stacks waiting for its merge */
+    /*
+     * One build of the sieve, as its workers see it.  A build that is
+     * replaced or given up is stopped; its workers quit at the next block
+     * and what they report no longer reaches sieve_ready.
+     */
+    private static class sieve_job
+    {
+        final int nseg;
+        final int entries;
+        final boolean[] seg_done;
+        final long begin;
+        int segs_ready;
+        Throwable error;                /* what stopped a worker */
+        volatile boolean stopped;
+
+        sieve_job(int nseg, int entries, long begin)
+        {
+            this.nseg = nseg;
+            this.entries = entries;
+            this.seg_done = new boolean[nseg];
+            this.begin = begin;
+        }
+    }
+
+    private static class spill_t
+    {
+	public long bytes;
+	public File p;          /* null while it stays in memory */
+	public File q;
+	public File g;
+    }
+
+    private long z_bytes(Z z)
+        throws MPException
+    {
+        return mp.z_sizeinbase(z, 2)/8 + 1;
+    }
+
+    private File z_spill(Z z)
+        throws MPException
+    {
+        File f;
+        try {
+            f = File.createTempFile("bs_", ".mpz", spill_dir);
+        }
+        catch (IOException e) {
+            throw new MPException(e);
+        }
+        mp.z_save(z, f);
+        mp.z_release(z);
+        arena.note(z);
+        return f;
+    }
+
+    private void z_unspill(Z z, File f)
+        throws MPException
+    {
+        mp.z_load(z, f);
+        arena.note(z);
+        f.delete();
+    }
+
+    /*
+     * Entry top of ctx is about to sit idle.  Write it out if it is large
+     * and it, plus what is already parked, plus the working set of the
+     * other subtree (about twice its size again), would exceed the budget.
+     */
+    private spill_t spill_save(bs_ctx ctx, int top)
+        throws MPException
+    {
+        spill_t s;
+        if (spill_dir == null) {
+            return null;
+        }
+        s = new spill_t();
+        s.bytes = z_bytes(ctx.pstack[top]) + z_bytes(ctx.qstack[top]) + z_bytes(ctx.gstack[top]);
+        if (s.bytes >= SPILL_MIN && spill_held.get() + 3*s.bytes > spill_budget) {
+            s.p = z_spill(ctx.pstack[top]);
+            s.q = z_spill(ctx.qstack[top]);
+            s.g = z_spill(ctx.gstack[top]);
+            log("spill: " + s.bytes + " bytes");
+        } else {
+            spill_held.addAndGet(s.bytes);
+        }
+        return s;
+    }
+
+    /* bring entry top back for the merge */
+    private void spill_load(bs_ctx ctx, int top, spill_t s)
+        throws MPException
+    {
+        if (s == null) {
+            return;
+        }
+        if (s.p == null) {
+            spill_held.addAndGet(-s.bytes);
+            return;
+        }
+        z_unspill(ctx.pstack[top], s.p);
+        z_unspill(ctx.qstack[top], s.q);
+        z_unspill(ctx.gstack[top], s.g);
+    }
+
+    private File      out_file;      /* null: result as one string */
+    private int       out_group;
+    private int       out_line;
+
+    /*
+     * Write the digits to file in groups of group digits, line groups per
+     * line, instead of returning them in getResult.  The conversion then
+     * never holds the digits as a string.
+     */
+    public void setOutputFile(File file, int group, int line)
+    {
+        out_file = file;
+        out_group = group;
+        out_line = line;
+    }
+
+    private ResultCache cache;
+
+    /* serve requests from cache when it has enough digits, and add results to it */
+    public void setResultCache(ResultCache cache)
+    {
+        this.cache = cache;
+    }
+
+    /* the output file, plus the result checkpoint, the cache entry and the verifier as asked */
+    private DigitSink result_sink(int d, DigitVerifier verifier, boolean ckpt, boolean cached)
+    {
+        DigitSink sink = new DigitFileWriter(out_file, out_group, out_line);
+        if (ckpt) {
+            sink = new DigitTee(sink, ckpt_result_writer(d));
+        }
+        if (cached) {
+            sink = new DigitTee(sink, cache.writer(d));
+        }
+        if (verifier != null) {
+            sink = new DigitTee(sink, verifier);
+        }
+        return sink;
+    }
+
+    /* the first n digits of 0.<str>E<exp> */
+    private static void put_string(DigitSink sink, String str, int exp, int n)
+        throws MPException
+    {
+        char[] c = str.toCharArray();
+        try {
+            sink.begin(exp);
+            sink.digits(c, 0, min(c.length, n));
+            sink.end();
+        }
+        catch (IOException e) {
+            throw new MPException(e);
+        }
+    }
+
+    /* d digits after the point from a cache entry, as a string or to the output file */
+    private String cache_serve(File f, int d, int[] exp, DigitVerifier verifier)
+        throws MPException
+    {
+        DigitString ds = null;
+        try {
+            if (out_file == null) {
+                ds = new DigitString();
+                DigitFileReader.copy(f, ds, d);
+            } else {
+                DigitFileReader.copy(f, result_sink(d, verifier, false, false), d);
+            }
+        }
+        catch (IOException e) {
+            throw new MPException(e);
+        }
+        if (ds == null) {
+            return null;
+        }
+        exp[0] = ds.getExp();
+        return ds.toString();
+    }
+
+    private File      ckpt_base;     /* null: no checkpoints */
+    private File      ckpt_dir;      /* ckpt_base/pi_<terms> */
+
+    /* nodes of the top levels covering at least this many terms are saved */
+    private static final int CKPT_LEVEL = 8;
+    private static final int CKPT_MIN_TERMS = 1<<10;
+
+    /*
+     * Save finished bs subtrees and the final result under dir, and pick
+     * them up again on the next run with the same number of terms.
+     */
+    public void setCheckpoint(File dir)
+    {
+        ckpt_base = dir;
+    }
+
+    private File ckpt_file(int a, int b, String ext)
+    {
+        return new File(ckpt_dir, a + "_" + b + ext);
+    }
+
+    private boolean ckpt_wanted(int a, int b, int level)
+    {
+        return (ckpt_dir != null && level <= CKPT_LEVEL && b-a >= CKPT_MIN_TERMS);
+    }
+
+    private static void fac_write(DataOutputStream out, fac_t f)
+        throws IOException
+    {
+        int i;
+        out.writeInt(f.num_facs);
+        for (i=0; i<f.num_facs; i++) {
+            out.writeInt(f.fac[i]);
+            out.writeInt(f.pow[i]);
+        }
+    }
+
+    private static void fac_read(DataInputStream in, fac_t f)
+        throws IOException
+    {
+        int i, n;
+        n = in.readInt();
+        fac_resize(f, n);
+        for (i=0; i<n; i++) {
+            f.fac[i] = in.readInt();
+            f.pow[i] = in.readInt();
+        }
+        f.num_facs = n;
+    }
+
+    /*
+     * Entry top of ctx holds bs(a,b,gflag).  The .fac file goes last, under
+     * a temporary name, so its presence means the checkpoint is complete.
+     */
+    private void ckpt_save(bs_ctx ctx, int top, int a, int b, boolean gflag)
+        throws MPException
+    {
+        File tmp = ckpt_file(a, b, ".tmp");
+        mp.z_save(ctx.pstack[top], ckpt_file(a, b, ".p"));
+        mp.z_save(ctx.qstack[top], ckpt_file(a, b, ".q"));
+        if (gflag) {
+            mp.z_save(ctx.gstack[top], ckpt_file(a, b, ".g"));
+        }
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                fac_write(out, ctx.fpstack[top]);
+                if (gflag) {
+                    fac_write(out, ctx.fgstack[top]);
+                }
+            }
+            finally {
+                out.close();
+            }
+        }
+        catch (IOException e) {
+            throw new MPException(e);
+        }
+        if (!tmp.renameTo(ckpt_file(a, b, ".fac"))) {
+            throw new MPException("checkpoint: cannot rename " + tmp);
+        }
+    }
+
+    private boolean ckpt_load(bs_ctx ctx, int top, int a, int b, boolean gflag)
+        throws MPException
+    {
+        File f = ckpt_file(a, b, ".fac");
+        if (!f.exists()) {
+            return false;
+        }
+        mp.z_load(ctx.pstack[top], ckpt_file(a, b, ".p"));
+        mp.z_load(ctx.qstack[top], ckpt_file(a, b, ".q"));
+        if (gflag) {
+            mp.z_load(ctx.gstack[top], ckpt_file(a, b, ".g"));
+        }
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+            try {
+                fac_read(in, ctx.fpstack[top]);
+                if (gflag) {
+                    fac_read(in, ctx.fgstack[top]);
+                }
+            }
+            finally {
+                in.close();
+            }
+        }
+        catch (IOException e) {
+            throw new MPException(e);
+        }
+        log("checkpoint: resumed bs(" + a + ", " + b + ")");
+        return true;
+    }
+
+    /* the marker goes first, so a half-dropped checkpoint is never loaded */
+    private void ckpt_drop(int a, int b)
+    {
+        ckpt_file(a, b, ".fac").delete();
+        ckpt_file(a, b, ".p").delete();
+        ckpt_file(a, b, ".q").delete();
+        ckpt_file(a, b, ".g").delete();
+    }
+
+    private File ckpt_result(int d)
+    {
+        return new File(ckpt_dir, "pi_" + d + ".txt");
+    }
+
+    private File ckpt_result_tmp(int d)
+    {
+        return new File(ckpt_dir, "pi_" + d + ".tmp");
+    }
+
+    /* the result as plain positional text, for DigitFileReader to copy out */
+    private DigitFileWriter ckpt_result_writer(int d)
+    {
+        return new DigitFileWriter(ckpt_result_tmp(d), 0, 0);
+    }
+
+    private void ckpt_commit_result(int d)
+        throws MPException
+    {
+        File tmp = ckpt_result_tmp(d);
+        if (!tmp.renameTo(ckpt_result(d))) {
+            throw new MPException("checkpoint: cannot rename " + tmp);
+        }
+    }
+
+    private void ckpt_save_result(int d, String str, int exp)
+        throws MPException
+    {
+        put_string(ckpt_result_writer(d), str, exp, str.length());
+        ckpt_commit_result(d);
+    }
+
+    private void ckpt_stream_result(int d, DigitSink sink)
+        throws MPException
+    {
+        try {
+            DigitFileReader.copy(ckpt_result(d), sink, -1);
+        }
+        catch (IOException e) {
+            throw new MPException(e);
+        }
+    }
+
+    private String ckpt_load_result(int d, int[] exp)
+        throws MPException
+    {
+        DigitString ds = new DigitString();
+        ckpt_stream_result(d, ds);
+        exp[0] = ds.getExp();
+        return ds.toString();
+    }
+
+    /* files left behind by a run that failed between save and load */
+    private void spill_clean()
+    {
+        File[] files = spill_dir.listFiles();
+        int i;
+        if (files == null) {
+            return;
+        }
+        for (i=0; i<files.length; i++) {
+            String name = files[i].getName();
+            if (name.startsWith("bs_") && name.endsWith(".mpz")) {
+                files[i].delete();
+            }
+        }
+    }
+
+    /* enough forked subtrees to keep every core busy, with slack for the
+       uneven split ratio */
+    static int default_par_level()
+    {
+        int ncpu = Runtime.getRuntime().availableProcessors();
+        int level = 0;
+        while ((1<<level) < ncpu) {
+            level++;
+        }
+        return (ncpu > 1 ? level+1 : 0);
+    }
+
+    /*
+     * Stop s and wait until its threads are out, so what they were
+     * computing on can be given back.  They leave at their next
+     * check_cancel once the run has failed, or when interrupted.
+     */
+    static void drain(ExecutorService s)
+    {
+        boolean interrupted = false;
+        s.shutdownNow();
+        while (!s.isTerminated()) {
+            try {
+                s.awaitTermination(1, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    static <T> T join(Future<T> f)
+        throws MPException
+    {
+        try {
+            return f.get();
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof MPException) {
+                throw (MPException)cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error)cause;
+            }
+            throw new RuntimeException(cause);
+        }
+        catch (InterruptedException e) {
+            f.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    /* p(0,n) and q(0,n) take about this many bits per term */
+    private static final double BITS_PER_TERM = 68.0;
+    /* final stage phases in full-precision multiplications */
+    private static final double INIT_MULS = 0.1;
+    private static final double DIV_MULS = 2.5;
+    private static final double SQRT_MULS = 1.5;
+    /* bits kept beyond the working precision by truncated merges */
+    static final long TRUNC_GUARD = 64;
+    /* per halving of the digits down to CONV_LEAF */
+    private static final double CONVERT_MULS = 0.6;
+
+    /* four multiplications of operands half the size of the node */
+    private long merge_cost(int n)
+    {
+        return 4*Progress.mul_cost((long)((double)n*BITS_PER_TERM/2), tune.mul_exponent);
+    }
+
+    /* work of bs(a,b), leaves weighing as much as merging two terms */
+    long bs_cost(int a, int b)
+    {
+        if (b-a == 1) {
+            return merge_cost(2);
+        }
+        int mid = bs_mid(a, b);
+        return bs_cost(a, mid) + bs_cost(mid, b) + merge_cost(b-a);
+    }
+
+    private long phase_cost(double muls, long prec)
+    {
+        return (long)(muls*(double)Progress.mul_cost(prec, tune.mul_exponent));
+    }
+
+    private static double convert_muls(int d)
+    {
+        return CONVERT_MULS*Math.max(1.0, Math.log((double)d/CONV_LEAF)/Math.log(2.0));
+    }
+
+    /* the work of bs over terms and of the final stage at d digits */
+    private Progress new_progress(int terms, int d)
+    {
+        long prec = (long)((double)d*BITS_PER_DIGIT+16);
+        double muls = INIT_MULS + DIV_MULS + SQRT_MULS + 1.0 + convert_muls(d);
+        return new Progress((terms > 0 ? bs_cost(0, terms) : 0) + phase_cost(muls, prec));
+    }
+
+    public Progress getProgress()
+    {
+        return progress;
+    }
+
+    /* count work as done; reports percent and ETA in seconds when the percent moves */
+    void bs_progress(long work)
+    {
+        Progress pr = progress;
+        if (pr == null) {
+            return;
+        }
+        int pct = pr.percent(pr.add(work));
+        if (pct > progresspct) {
+            synchronized (this) {
+                if (pct > progresspct) {
+                    progresspct = pct;
+                    if (listener != null) {
+                        listener.progress(pct, pr.etaMillis());
+                    }
+                }
+            }
+        }
+    }
+
+    private void phase_progress(double muls, long prec)
+    {
+        bs_progress(phase_cost(muls, prec));
+    }
+
+    private int bs_mid(int a, int b)
+    {
+        return (int)((double)a+(double)(b-a)*tune.split_ratio);
+    }
+
+    /* bs over all terms, forking the top par_level levels to a pool */
+    void bs_root(bs_ctx ctx, int terms)
+        throws MPException
+    {
+        boolean done = false;
+        if (par_level > 0) {
+            pool = Executors.newCachedThreadPool();
+        }
+        try {
+            bs(ctx,0,terms,false,0);
+            done = true;
+        }
+        finally {
+            if (pool != null) {
+                /* stop the forked subtrees at their next check_cancel */
+                if (!done) {
+                    fail("binary splitting failed");
+                }
+                drain(pool);
+                pool = null;
+            }
+        }
+    }
+
+    /* the gauges are sampled at the merges of the top levels */
+    static final int SAMPLE_LEVELS = 4;
+
+    /* r = a*b, counted at level with the bits of the product */
+    void z_mul(int level, Z r, Z a, Z b)
+        throws MPException
+    {
+        long t0 = System.nanoTime();
+        mp.z_mul(r, a, b);
+        metrics.op(Metrics.OP_MUL, level, mp.z_sizeinbase(r, 2), System.nanoTime()-t0);
+    }
+
+    /* binary splitting */
+    void bs(bs_ctx ctx, int a, int b, boolean gflag, int level)
+        throws MPException
+    {
+        int i, mid;
+        Z p1;
+        Z q1;
+        Z g1;
+        fac_t fp1;
+        fac_t fg1;
+        spill_t parked;
+        int top = ctx.top;
+
+        check_cancel();
+        if (ckpt_wanted(a, b, level) && ckpt_load(ctx, top, a, b, gflag)) {
+            if (progress != null) {
+                bs_progress(bs_cost(a, b));
+            }
+            return;
+        }
+
+        if (b-a==1) {
+            /*
+              g(b-1,b) = (6b-5)(2b-1)(6b-1)
+              p(b-1,b) = b^3 * C^3 / 24
+              q(b-1,b) = (-1)^b*g(b-1,b)*(A+Bb).
+            */
+            p1 = (ctx.pstack[top]);
+            q1 = (ctx.qstack[top]);
+            g1 = (ctx.gstack[top]);
+            fp1 = (ctx.fpstack[top]);
+            fg1 = (ctx.fgstack[top]);
+
+            mp.z_set_ui(p1, b);
+            mp.z_mul_ui(p1, p1, b);
+            mp.z_mul_ui(p1, p1, b);
+            mp.z_mul_ui(p1, p1, (C/24)*(C/24));
+            mp.z_mul_ui(p1, p1, C*24);
+
+            mp.z_set_ui(g1, 2*b-1);
+            mp.z_mul_ui(g1, g1, 6*b-1);
+            mp.z_mul_ui(g1, g1, 6*b-5);
+
+            mp.z_set_ui(q1, b);
+            mp.z_mul_ui(q1, q1, B);
+            mp.z_add_ui(q1, q1, A);
+            mp.z_mul   (q1, q1, g1);
+            if (b%2 != 0) {
+                mp.z_neg(q1, q1);
+            }
+
+            i=(int)b;
+            while ((i&1)==0) i>>=1;
+            fac_set_bp(fp1, i, 3);  /*  b^3 */
+            fac_mul_bp(ctx, fp1, 3*5*23*29, 3);
+            fp1.pow[0]--;
+
+            fac_set_bp(fg1, 2*b-1, 1);  /* 2b-1 */
+            fac_mul_bp(ctx, fg1, 6*b-1, 1);  /* 6b-1 */
+            fac_mul_bp(ctx, fg1, 6*b-5, 1);  /* 6b-5 */
+
+            //printf("."); fflush(stdout);
+            bs_progress(merge_cost(2));
+
+        } else {
+            /*
+              p(a,b) = p(a,m) * p(m,b)
+              g(a,b) = g(a,m) * g(m,b)
+              q(a,b) = q(a,m) * p(m,b) + q(m,b) * g(a,m)
+            */
+            mid = bs_mid(a, b);
+            if (level < par_level && pool != null) {
+                /* left subtree in a fresh context on the pool, right one here */
+                final bs_ctx lctx = new bs_ctx(depth, level+1);
+                final int la = a;
+                final int lb = mid;
+                final int ll = level+1;
+                Future<?> left = pool.submit(new Callable<Void>() {
+                    public Void call()
+                        throws MPException
+                    {
+                        boolean done = false;
+                        try {
+                            bs(lctx, la, lb, true, ll);
+                            done = true;
+                        }
+                        finally {
+                            if (!done) {
+                                fail("binary splitting failed");
+                                lctx.release();
+                            }
+                        }
+                        return null;
+                    }
+                });
+
+                ctx.top++;
+                bs(ctx, mid, b, gflag, level+1);
+                parked = spill_save(ctx, top+1);
+                ctx.top--;
+
+                join(left);
+                ctx.swap_top(lctx);
+                lctx.release();
+                spill_load(ctx, top+1, parked);
+            } else {
+                bs(ctx, a, mid, true, level+1);
+                parked = spill_save(ctx, top);
+
+                ctx.top++;
+                bs(ctx, mid, b, gflag, level+1);
+                ctx.top--;
+                spill_load(ctx, top, parked);
+            }
+
+            p1 = (ctx.pstack[top]);
+            q1 = (ctx.qstack[top]);
+            g1 = (ctx.gstack[top]);
+            fp1 = (ctx.fpstack[top]);
+            fg1 = (ctx.fgstack[top]);
+            Z p2 = (ctx.pstack[top+1]);
+            Z q2 = (ctx.qstack[top+1]);
+            Z g2 = (ctx.gstack[top+1]);
+            fac_t fp2 = (ctx.fpstack[top+1]);
+            fac_t fg2 = (ctx.fgstack[top+1]);
+
+            /***
+            if (level == 0) {
+                puts ("");
+            }
+            ***/
+
+            if (level < SAMPLE_LEVELS) {
+                arena.note(p1); arena.note(q1); arena.note(g1);
+                arena.note(p2); arena.note(q2); arena.note(g2);
+                metrics.sample();
+                check_memory();
+            }
+            if (level == 0 && (out&2) != 0) {
+                log("mem: " + metrics.gauges());
+            }
+
+            if (level>=tune.gcd_level) {
+                long t0 = System.nanoTime();
+                fac_remove_gcd(ctx, p2, fp2, g1, fg1);
+                metrics.op(Metrics.OP_GCD, level,
+                    mp.z_sizeinbase(p2, 2) + mp.z_sizeinbase(g1, 2), System.nanoTime()-t0);
+            }
+
+            z_mul(level, p1, p1, p2);
+            z_mul(level, q1, q1, p2);
+            z_mul(level, q2, q2, g1);
+            mp.z_add(q1, q1, q2);
+            fac_mul(ctx, fp1, fp2);
+
+            if (gflag) {
+                z_mul(level, g1, g1, g2);
+                fac_mul(ctx, fg1, fg2);
+            }
+            bs_progress(merge_cost(b-a));
+
+            if (level == 0 && (out&2) != 0) {
+                metrics.sample();
+                log("mem: " + metrics.gauges());
+            }
+
+            if (ckpt_wanted(a, b, level)) {
+                ckpt_save(ctx, top, a, b, gflag);
+                ckpt_drop(a, mid);
+                ckpt_drop(mid, b);
+            }
+        }
+
+        /***
+        if (out&2 != 0) {
+            printf("p(%ld,%ld)=",a,b); fac_show(fp1);
+            if (gflag)
+                printf("g(%ld,%ld)=",a,b); fac_show(fg1);
+        }
+        ***/
+        if ((out&2) != 0) {
+            fac_show("p(" + a + ", " + b + ")=", fp1);
+            if (gflag) {
+                fac_show("g(" + a + ", " + b + ")=", fg1);
+            }
+        }
+    }
+    
+    private void dump_sieve(int n, char[] s)
+    {
+	int i;
+	log("----- sieve -------");
+	for (i = 0; i < n/2; i++) {
+	    log("" + (2*i+1) + ": " + (int)s[i]);
+	}
+	log("------------------");
+    }
+
+    /* odd primes up to m */
+    private static int[] sieve_primes(int m)
+    {
+        boolean[] comp = new boolean[m/2+1];
+        int[] primes = new int[m/2+1];
+        int np = 0;
+        int i, j;
+
+        for (i=3; i<=m; i+=2) {
+            if (!comp[i/2]) {
+                primes[np++] = i;
+                for (j=i*i; j<=m; j+=i+i) {
+                    comp[j/2] = true;
+                }
+            }
+        }
+        int[] r = new int[np];
+        System.arraycopy(primes, 0, r, 0, np);
+        return r;
+    }
+
+    /* mark the odd numbers with index lo..hi-1 */
+    private static void sieve_segment(char[] s, int lo, int hi, int[] primes)
+    {
+        long first = 2L*lo+1;
+        long last = 2L*hi-1;
+        long j;
+        int p, k;
+
+        for (k=0; k<primes.length; k++) {
+            p = primes[k];
+            j = (long)p*p;
+            if (j > last) {
+                break;
+            }
+            if (j < first) {
+                j = (first+p-1)/p*p;
+                if ((j&1) == 0) {
+                    j += p;
+                }
+            }
+            for (; j<=last; j+=2*p) {
+                if (s[(int)(j>>1)] == 0) {
+                    s[(int)(j>>1)] = (char)p;
+                }
+            }
+        }
+    }
+
+    private void sieve_done(sieve_job job, int seg)
+    {
+        synchronized (sieve_lock) {
+            int r = job.segs_ready;
+            job.seg_done[seg] = true;
+            while (r < job.nseg && job.seg_done[r]) {
+                r++;
+            }
+            if (r != job.segs_ready && job == sieve_cur) {
+                sieve_ready = (r == job.nseg ? job.entries : r*SIEVE_SEGMENT);
+                sieve_lock.notifyAll();
+                if (r == job.nseg) {
+                    log("sieve: time = " + Metrics.ms(metrics.phase(Metrics.SIEVE, job.begin)-job.begin) + " milliseconds");
+                }
+            }
+            job.segs_ready = r;
+        }
+    }
+
+    private void sieve_failed(sieve_job job, Throwable e)
+    {
+        synchronized (sieve_lock) {
+            if (job.error == null) {
+                job.error = e;
+            }
+            sieve_lock.notifyAll();
+        }
+    }
+
+    /* let the workers of the current build quit; the sieve is not kept */
+    private void sieve_stop()
+    {
+        synchronized (sieve_lock) {
+            if (sieve_cur != null) {
+                sieve_cur.stopped = true;
+            }
+        }
+        sieve = null;
+    }
+
+    /*
+     * block until sieve[i] is final, giving up when the run is cancelled
+     * or a worker has failed
+     */
+    private void sieve_wait(int i)
+        throws MPException
+    {
+        while (sieve_ready <= i) {
+            check_cancel();
+            synchronized (sieve_lock) {
+                if (sieve_cur.error != null) {
+                    throw new MPException("sieve failed: " + sieve_cur.error);
+                }
+                if (sieve_cur.stopped) {
+                    throw new CancellationException("sieve stopped");
+                }
+                if (sieve_ready > i) {
+                    break;
+                }
+                try {
+                    sieve_lock.wait(SIEVE_POLL_MS);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new CancellationException("interrupted");
+                }
+            }
+        }
+    }
+
+    /*
+     * Sieve the odd numbers below n into s in blocks of SIEVE_SEGMENT, one
+     * worker thread per core taking blocks in increasing order, and return
+     * without waiting.  Blocks are independent; fac_set_bp waits only for
+     * the prefix it reads, so bs can run on low terms while later blocks
+     * are still being sieved.
+     */
+    void start_sieve(final int n, final char[] s)
+    {
+        final int entries = n/2;
+        final int nseg = (entries+SIEVE_SEGMENT-1)/SIEVE_SEGMENT;
+        final int[] primes = sieve_primes((int)Math.sqrt((double)n));
+        final AtomicInteger next = new AtomicInteger(0);
+        final sieve_job job = new sieve_job(nseg, entries, cputime());
+        int nthreads = min(Runtime.getRuntime().availableProcessors(), nseg);
+        int t;
+
+        sieve_size = n;
+        synchronized (sieve_lock) {
+            if (sieve_cur != null) {
+                sieve_cur.stopped = true;
+            }
+            sieve_cur = job;
+            sieve_ready = 0;
+        }
+        for (t=0; t<nthreads; t++) {
+            Thread worker = new Thread(new Runnable() {
+                public void run()
+                {
+                    int seg;
+                    try {
+                        while (!job.stopped && (seg = next.getAndIncrement()) < nseg) {
+                            sieve_segment(s, seg*SIEVE_SEGMENT, min((seg+1)*SIEVE_SEGMENT, entries), primes);
+                            sieve_done(job, seg);
+                        }
+                    }
+                    catch (Throwable e) {
+                        sieve_failed(job, e);
+                    }
+                }
+            }, "sieve-" + t);
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    void build_sieve(int n, char[] s)
+        throws MPException
+    {
+        start_sieve(n, s);
+        sieve_wait(n/2-1);
+    }
+
+    /* number of terms for d digits; sizes the stacks */
+    int init_terms(int d)
+    {
+        int terms = (int)((double)d/DIGITS_PER_ITER);
+        nterms = terms;
+        depth = 1;
+        while ((1L<<depth)<terms) {
+            depth++;
+        }
+        depth++;
+        return terms;
+    }
+
+    void init_sieve(int terms)
+        throws MPException
+    {
+        start_init_sieve(terms);
+        sieve_wait(sieve_size/2-1);
+    }
+
+    /* whether no worker of the current build has failed */
+    private boolean sieve_ok()
+    {
+        synchronized (sieve_lock) {
+            return sieve_cur != null && sieve_cur.error == null;
+        }
+    }
+
+    private static int sieve_size_for(int terms)
+    {
+        return max(3*5*23*29+1, terms*6);
+    }
+
+    void start_init_sieve(int terms)
+    {
+        if (keep_sieve && sieve != null && sieve_size >= sieve_size_for(terms) && sieve_ok()) {
+            log("sieve: kept from the last run");
+            return;
+        }
+        sieve_size = sieve_size_for(terms);
+        //sieve = (sieve_t *)malloc(sizeof(sieve_t)*sieve_size/2);
+        sieve = new char[sieve_size/2];
+        start_sieve(sieve_size, sieve);
+    }
+
+    /*
+     * 1/sqrt(x) at prec bits on a thread of stage, with scratch of its own.
+     * It needs nothing from bs, so the final stage only waits for it if bs
+     * and the reciprocal finish first.
+     */
+    private Future<F> start_rsqrt(ExecutorService stage, final long x, final long prec)
+    {
+	return stage.submit(new Callable<F>() {
+	    public F call()
+		throws MPException
+	    {
+		long t0 = cputime();
+		F r = arena.f_new(prec);
+		F t = arena.f_new(prec);
+		my_rsqrt_ui(r, x, t);
+		arena.f_free(t);
+		long end = metrics.phase(Metrics.SQRT, t0);
+		log("rsqrt: time = " + Metrics.ms(end-t0) + " milliseconds, alongside bs");
+		phase_progress(SQRT_MULS, prec);
+		return r;
+	    }
+	});
+    }
+
+    /* hex digits kept back from the end of the correct bits */
+    private static final int HEX_GUARD = 4;
+
+    /* where the hex check of d digits looks, -1 if it is too short for one */
+    private static long hex_position(int d)
+    {
+	long pos = (long)((double)d*BITS_PER_DIGIT)/4 - BBP.DIGITS - HEX_GUARD;
+	return (pos >= 0 && pos < BBP.MAX_POSITION ? pos : -1);
+    }
+
+    /* BBP's digits at pos on a thread of stage */
+    private Future<String> start_bbp(ExecutorService stage, final long pos)
+    {
+	return stage.submit(new Callable<String>() {
+	    public String call()
+	    {
+		long t0 = cputime();
+		String hex = BBP.hex(pos);
+		log("bbp: time = " + Metrics.ms(cputime()-t0) + " milliseconds, alongside bs");
+		return hex;
+	    }
+	});
+    }
+
+    /*
+     * Compare the BBP.DIGITS hex digits of x after the first pos with hex,
+     * returns whether they agree, with the line for the result in note[0].
+     * floor(x*16^(pos+DIGITS)) mod 16^DIGITS are those digits.  A null hex,
+     * BBP being undecided, passes.  Uses t2.
+     */
+    private boolean hex_compare(F x, long pos, String hex, String[] note)
+        throws MPException
+    {
+	if (hex == null) {
+	    note[0] = "BBP: hex digits " + (pos+1) + " to " + (pos+BBP.DIGITS) + " not checked, too near a carry for BBP";
+	    return true;
+	}
+	Z z = arena.z_new();
+	Z q = arena.z_new();
+	Z r = arena.z_new();
+	Z m = arena.z_new();
+	String s;
+
+	mp.z_ui_pow_ui(z, 2, 4*(pos+BBP.DIGITS));
+	mp.f_set_prec_raw(t2, mp.f_get_prec(x));
+	mp.f_set_z(t2, z);
+	mp.f_mul(t2, x, t2);
+	mp.z_set_f(z, t2);
+	mp.z_ui_pow_ui(m, 2, 4*BBP.DIGITS);
+	mp.z_tdiv_qr(q, r, z, m);
+	s = mp.z_get_str(16, r);
+	arena.z_free(z);
+	arena.z_free(q);
+	arena.z_free(r);
+	arena.z_free(m);
+	while (s.length() < BBP.DIGITS) {
+	    s = "0" + s;
+	}
+	if (s.equals(hex)) {
+	    note[0] = "BBP: hex digits " + (pos+1) + " to " + (pos+BBP.DIGITS) + " match (" + hex + ")";
+	    return true;
+	}
+	note[0] = "BBP: hex digits " + (pos+1) + " to " + (pos+BBP.DIGITS) + " are " + s + ", BBP has " + hex;
+	return false;
+    }
+
+    /* ModCheck's sums over terms on a thread of stage */
+    private Future<ModCheck> start_modcheck(ExecutorService stage, final int terms)
+    {
+	return stage.submit(new Callable<ModCheck>() {
+	    public ModCheck call()
+	    {
+		long t0 = cputime();
+		ModCheck c = new ModCheck(terms);
+		c.sum();
+		log("modcheck: time = " + Metrics.ms(cputime()-t0) + " milliseconds, alongside bs");
+		return c;
+	    }
+	});
+    }
+
+    /* p mod the i-th prime of c, in [0,m) */
+    private long z_mod(ModCheck c, int i, Z p, Z m, Z r)
+        throws MPException
+    {
+	long v;
+	/* the prime in 32-bit halves: unsigned long may be 32 bits */
+	mp.z_set_ui(m, c.prime(i) >>> 32);
+	mp.z_mul_ui(m, m, 1L<<16);
+	mp.z_mul_ui(m, m, 1L<<16);
+	mp.z_add_ui(m, m, c.prime(i) & UI_MAX);
+	mp.z_tdiv_r(r, p, m);
+	v = Long.parseLong(mp.z_get_str(16, r), 16);
+	return (v < 0 ? v + c.prime(i) : v);
+    }
+
+    /*
+     * compare p and q, the root of bs, with c; returns whether they agree,
+     * with the line for the result in note[0]
+     */
+    private boolean mod_compare(ModCheck c, Z p, Z q, String[] note)
+        throws MPException
+    {
+	long t0 = cputime();
+	Z m = arena.z_new();
+	Z r = arena.z_new();
+	int i;
+	int bad = 0;
+
+	for (i = 0; i < ModCheck.PRIMES; i++) {
+	    if (!c.check(i, z_mod(c, i, p, m, r), z_mod(c, i, q, m, r))) {
+		bad++;
+	    }
+	}
+	arena.z_free(m);
+	arena.z_free(r);
+	log("modcheck: compare = " + Metrics.ms(cputime()-t0) + " milliseconds");
+	if (bad == 0) {
+	    note[0] = "ModCheck: P and Q agree modulo " + ModCheck.PRIMES + " random " + ModCheck.BITS + "-bit primes";
+	    return true;
+	}
+	note[0] = "ModCheck: P and Q disagree modulo " + bad + " of " + ModCheck.PRIMES + " primes";
+	return false;
+    }
+
+    /*
+     * The digits of x up to d after the point, truncated, returned as a
+     * string, or written to out_file and the result checkpoint and cache as
+     * asked, returning null.
+     */
+    private String result_digits(F x, int d, int[] exp, DigitVerifier verifier, boolean ckpt, boolean cached)
+        throws MPException
+    {
+	long start = cputime();
+	long end;
+	String str = null;
+
+	try {
+	    if (out_file == null) {
+		/* truncated like the file, not rounded as f_get_str would */
+		DigitString ds = new DigitString();
+		f_out_digits(ds, x, d);
+		exp[0] = ds.getExp();
+		str = ds.toString();
+	    } else {
+		f_out_digits(result_sink(d, verifier, ckpt, cached), x, d);
+	    }
+	}
+	catch (IOException e) {
+	    throw new MPException(e);
+	}
+
+	end = metrics.phase(Metrics.CONVERT, start);
+	metrics.sample();
+	log("convert: time = " + Metrics.ms(end-start) + " milliseconds");
+	phase_progress(convert_muls(d), (long)((double)d*BITS_PER_DIGIT+16));
+	return str;
+    }
+
+    /* the finish of a series in full-precision multiplications */
+    private static final double FINISH_MULS = SQRT_MULS + 1.0;
+
+    /*
+     * The constant of series at d digits: its sum by Hypergeometric in
+     * place of bs, then the division and its formula in place of the
+     * final stage.  Uses t1 and t2, and leaves t2 for the conversion.
+     */
+    private F series_value(int d, int terms)
+        throws MPException
+    {
+	Hypergeometric<Z, F> h = new Hypergeometric<Z, F>(this, mp, series);
+	long prec = (long)((double)d*BITS_PER_DIGIT+16);
+	long keep = (truncate ? prec + TRUNC_GUARD : 0);
+	long t0, t;
+	F s = null;
+	F x = null;
+
+	try {
+	    h.init(terms, tune.split_ratio, keep);
+	    progress = new Progress(h.cost(0, terms) + phase_cost(DIV_MULS + FINISH_MULS + convert_muls(d), prec));
+	    progresspct = 0;
+
+	    t0 = cputime();
+	    h.sum(terms, par_level);
+	    t = metrics.phase(Metrics.BS, t0);
+	    log("bs:      time = " + Metrics.ms(t-t0) + " milliseconds");
+	    check_cancel();
+
+	    s = arena.f_new(prec);
+	    h.quotient(s);
+	    if (keep > 0) {
+		log("truncation: keep = " + keep + " bits, " +
+		    (h.good_bits() == Long.MAX_VALUE ? "nothing cut" : h.good_bits() + " bits good"));
+		if (h.good_bits() < prec) {
+		    /* not enough left for d digits: the whole numbers then */
+		    log("truncation: error bound too large, summing again exactly");
+		    h.init(terms, tune.split_ratio, 0);
+		    h.sum(terms, par_level);
+		    h.quotient(s);
+		    t = metrics.phase(Metrics.BS, t);
+		}
+	    }
+	    t0 = metrics.phase(Metrics.DIV, t);
+	    log("div: time = " + Metrics.ms(t0-t) + " milliseconds");
+	    phase_progress(DIV_MULS, prec);
+	    check_cancel();
+	    check_memory();
+
+	    t1 = arena.f_new(prec);
+	    t2 = arena.f_new(prec);
+	    x = arena.f_new(prec);
+	    series.finish(h, x, s);
+	    t = metrics.phase(Metrics.MUL, t0);
+	    log("finish: time = " + Metrics.ms(t-t0) + " milliseconds");
+	    phase_progress(FINISH_MULS, prec);
+	    check_cancel();
+	    arena.f_free(s);
+	    arena.f_free(t1);
+	    t1 = null;
+	    return x;
+	}
+	finally {
+	    h.release();
+	}
+    }
+
+    /*
+     * Compute d digits, returns the result text: the digits, or where they
+     * were written, followed by the verifier's report.  A result the
+     * verifier, ModCheck or BBP finds wrong is reported but neither
+     * checkpointed nor cached.  A cancelled or aborted run throws
+     * CancellationException after giving back what it held.
+     */
+    public String run(int d)
+        throws MPException
+    {
+	F  pi = null;
+	F  qi = null;
+	bs_ctx ctx = null;
+	int par_level0 = par_level;
+	ExecutorService stage = null;     /* work alongside bs */
+	Future<F> sqrt_c = null;
+	Future<String> bbp = null;
+	Future<ModCheck> modc = null;
+	try {
+	    int i;
+	    int terms;
+	    String note = null;
+	    long psize;
+	    long qsize;
+	    long begin;
+	    long mid0;
+	    long mid1;
+	    long mid2;
+	    long mid3;
+	    long mid4;
+	    long mid5;
+	    long end;
+	    String str;
+	    StringBuffer resultBuffer = new StringBuffer();
+	    int[] exp = new int[1];
+	    long prec;
+	    File qfile;
+	    long qbits;
+	    long hex_pos;
+	    String hex_note = null;
+	    String mod_note = null;
+	    String[] line = new String[1];
+	    boolean fresh = false;
+	    boolean failed;
+	    File cached;
+	    File ref;
+	    DigitVerifier verifier;
+	    /* what the cache and the checkpoints hold is pi */
+	    ResultCache cache = (series == null ? this.cache : null);
+
+	    arena = new Arena<Z, F>(mp);
+	    metrics.reset();
+	    last_verifier = null;
+	    hex_mismatch = false;
+	    mod_mismatch = false;
+	    abort_reason = null;
+	    deadline = (time_budget > 0 ? System.nanoTime() + time_budget*1000000L : 0);
+	    mem_base = mem_in_use();
+	    if (mem_budget > 0 && mem_estimate(d, par_level) > mem_budget) {
+		if (!downgrade) {
+		    throw new CancellationException(d + " digits need about " + mem_estimate(d, par_level) +
+			" bytes, over the memory budget of " + mem_budget);
+		}
+		while (par_level > 0 && mem_estimate(d, par_level) > mem_budget) {
+		    par_level--;
+		}
+		if (mem_estimate(d, 0) > mem_budget) {
+		    d = (int)(mem_budget/mem_estimate(1, 0));
+		    note = "downgraded to " + d + " digits by the memory budget";
+		} else {
+		    note = "downgraded to par_level " + par_level + " by the memory budget";
+		}
+		log(note);
+	    }
+
+            /* at least one term for bs */
+            if (d < DIGITS_PER_ITER) {
+        	d = 2*(int)DIGITS_PER_ITER + 1;
+            }
+	    if (tune_profile != null) {
+	        tune = Tuning.load(tune_profile, mp.name(), par_level > 0);
+	    }
+	    if (series != null) {
+	        terms = series.terms(d);
+	        log(series.name() + ": #terms=" + terms + ", par_level=" + par_level);
+	    } else {
+	        terms = init_terms(d);
+	        log("#terms=" + terms + ", depth=" + depth + ", par_level=" + par_level);
+	    }
+	    log("tuning: " + tune);
+
+	    if (spill_dir != null) {
+	        spill_held = new AtomicLong(0);
+	        spill_clean();
+	    }
+	    ckpt_dir = null;
+	    if (ckpt_base != null && series == null) {
+	        ckpt_dir = new File(ckpt_base, "pi_" + terms);
+	        if (!ckpt_dir.isDirectory() && !ckpt_dir.mkdirs()) {
+	            log("checkpoint: cannot create " + ckpt_dir);
+	            ckpt_dir = null;
+	        }
+	    }
+
+	    ref = reference;
+	    verifier = (ref != null ? new DigitVerifier(ref) : null);
+	    last_verifier = verifier;
+
+	    begin = cputime();
+	    str = null;
+	    cached = (cache != null ? cache.lookup(d) : null);
+	    if (cached != null) {
+	        log("cache: " + d + " digits from " + cached.getName());
+	        str = cache_serve(cached, d, exp, verifier);
+	    } else if (ckpt_dir != null && ckpt_result(d).exists()) {
+	        log("checkpoint: resumed result");
+	        if (out_file == null) {
+	            str = ckpt_load_result(d, exp);
+	        } else {
+	            ckpt_stream_result(d, result_sink(d, verifier, false, cache != null));
+	        }
+	    } else if (series != null) {
+	        qi = series_value(d, terms);
+	        str = result_digits(qi, d, exp, verifier, false, false);
+	        log("total   time = " + Metrics.ms(cputime()-begin) + " milliseconds");
+	    } else {
+		//printf("sieve   "); fflush(stdout);
+		progress = new_progress(terms, d);
+		progresspct = 0;
+
+		if ((out&2) != 0) {
+		    init_sieve(terms);
+		    dump_sieve(sieve_size, sieve);
+		} else {
+		    start_init_sieve(terms);
+		}
+
+		mid0 = cputime();
+		log("sieve: start = " + Metrics.ms(mid0-begin) + " milliseconds");
+
+		prec = (long)((double)d*BITS_PER_DIGIT+16);
+		stage = Executors.newCachedThreadPool();
+		sqrt_c = start_rsqrt(stage, C, prec);
+		hex_pos = hex_position(d);
+		if (hex_check && hex_pos >= 0) {
+		    bbp = start_bbp(stage, hex_pos);
+		}
+		if (mod_check && terms > 0) {
+		    modc = start_modcheck(stage, terms);
+		}
+
+		/* allocate stacks */
+		ctx = new bs_ctx(depth);
+		Z[] pstack = ctx.pstack;
+		Z[] qstack = ctx.qstack;
+		Z[] gstack = ctx.gstack;
+		fac_t[] fpstack = ctx.fpstack;
+		fac_t[] fgstack = ctx.fgstack;
+
+		/* begin binary splitting process */
+		bs_root(ctx, terms);
+		/* the forks swap entries, so the root is read afterwards */
+		Z p1 = (pstack[0]);
+		Z q1 = (qstack[0]);
+
+		mid1 = metrics.phase(Metrics.BS, mid0);
+		check_cancel();
+		log("bs:      time = " + Metrics.ms(mid1-mid0) + " milliseconds");
+		if (modc != null) {
+		    mod_mismatch = !mod_compare(join(modc), p1, q1, line);
+		    mod_note = line[0];
+		    modc = null;
+		    log(mod_note);
+		}
+		//printf("   gcd  time = %6.3f\n", (double)(gcd_time)/1000);
+
+		/* printf("misc    "); fflush(stdout); */
+
+		/* free some resources */
+		//free(sieve);
+		if (!keep_sieve) {
+		    sieve = null;
+		}
+
+		arena.z_free(ctx.gcd);
+		ctx.gcd = null;
+		fac_clear(ctx.ftmp);
+		fac_clear(ctx.fmul);
+		ctx.release_all(ctx.mulz, 0);
+
+		ctx.release_all(pstack, 1);
+		ctx.release_all(qstack, 1);
+		ctx.release_all(gstack, 0);
+		for (i=0; i<depth; i++) {
+		    fac_clear(fpstack[i]);
+		    fac_clear(fgstack[i]);
+		}
+
+		gstack = null;
+		fpstack = null;
+		fgstack = null;
+
+		/* convert integers to floats at prec, set before bs */
+
+		/*
+		     p*(C/D)*sqrt(C)
+		pi = -----------------
+		     (q+A*p)
+
+		with 1/(q+A*p) and sqrt(C) = C*C^(-1/2) by Newton's
+		iteration, so that only multiplications are done at full
+		precision
+		*/
+
+		psize = mp.z_sizeinbase(p1,10);
+		qsize = mp.z_sizeinbase(q1,10);
+
+		mp.z_addmul_ui(q1, p1, A);
+		mp.z_mul_ui(p1, p1, C/D);
+		qbits = mp.z_sizeinbase(q1,2);
+		arena.note(p1);
+		arena.note(q1);
+
+		/* if both do not fit, keep Q on disk while P is converted */
+		qfile = null;
+		if (spill_dir != null && z_bytes(p1)+z_bytes(q1) > spill_budget) {
+		    qfile = z_spill(q1);
+		}
+
+		pi = arena.f_new(prec);
+		if (qfile == null) {
+		    /* P on a thread of stage, Q here */
+		    final F pf = pi;
+		    final Z pz = p1;
+		    Future<Void> pconv = stage.submit(new Callable<Void>() {
+			public Void call()
+			    throws MPException
+			{
+			    mp.f_set_z(pf, pz);
+			    arena.z_free(pz);
+			    return null;
+			}
+		    });
+		    p1 = null;
+		    qi = arena.f_new(prec);
+		    mp.f_set_z(qi, q1);
+		    arena.z_free(q1);
+		    q1 = null;
+		    join(pconv);
+		} else {
+		    mp.f_set_z(pi, p1);
+		    arena.z_free(p1);
+		    p1 = null;
+
+		    z_unspill(q1, qfile);
+		    qi = arena.f_new(prec);
+		    mp.f_set_z(qi, q1);
+		    arena.z_free(q1);
+		    q1 = null;
+		}
+
+		pstack = null;
+		qstack = null;
+
+		mid2 = metrics.phase(Metrics.INIT, mid1);
+		log("init: time = " + Metrics.ms(mid2-mid1) + " milliseconds");
+		if ((out&2) != 0) {
+		    log("arena: " + arena.count() + " numbers, " + arena.bytes() + " bytes");
+		}
+		phase_progress(INIT_MULS, prec);
+		check_cancel();
+		check_memory();
+
+		/* initialize temp float variables for the reciprocal */
+		t1 = arena.f_new(prec);
+		t2 = arena.f_new(prec);
+
+		/* final step: qi = pi/qi as pi*(1/qi) */
+		//printf("div     ");  fflush(stdout);
+		my_recip(t1, qi, qbits, t2);
+		mp.f_mul(qi, pi, t1);
+		arena.f_free(t1);
+		t1 = null;
+		mid3 = metrics.phase(Metrics.DIV, mid2);
+		log("div: time = " + Metrics.ms(mid3-mid2) + " milliseconds");
+		phase_progress(DIV_MULS, prec);
+		check_cancel();
+		check_memory();
+
+		//printf("sqrt    ");  fflush(stdout);
+		arena.f_free(pi);
+		pi = join(sqrt_c);
+		sqrt_c = null;
+		mp.f_mul_ui(pi, pi, C);
+		mid4 = cputime();
+		log("sqrt: wait = " + Metrics.ms(mid4-mid3) + " milliseconds");
+		check_cancel();
+		if ((out&1) != 0) {
+		    log("sqrt(C)=0." + mp.f_get_str(exp, 10, d+2, pi) + "E" + exp[0]);
+		}
+
+		//printf("mul     ");  fflush(stdout);
+		mp.f_mul(qi, qi, pi);
+		mid5 = metrics.phase(Metrics.MUL, mid4);
+		log("mul: time = " + Metrics.ms(mid5-mid4) + " milliseconds");
+		phase_progress(1.0, prec);
+		check_cancel();
+
+		if (bbp != null) {
+		    hex_mismatch = !hex_compare(qi, hex_pos, join(bbp), line);
+		    hex_note = line[0];
+		    bbp = null;
+		    log(hex_note);
+		}
+
+		//fflush(stdout);
+
+		log("P size=" + psize + " digits (" + (double)psize/(double)d + ")" +
+		    "   Q size=" + qsize + " digits (" + (double)qsize/(double)d + ")");
+
+		/* output Pi and timing statistics */
+		/***
+		if (out&1)  {
+		    printf("pi(0,%ld)=\n", terms);
+		    mpf_out_str(stdout, 10, d+2, qi);
+		    printf("\n");
+		}
+		***/
+		str = result_digits(qi, d, exp, verifier, ckpt_dir != null, cache != null);
+		if ((out&2) != 0) {
+		    log("arena: " + arena.count() + " numbers, " + arena.bytes() + " bytes after the conversion");
+		}
+		end = cputime();
+		log("total   time = " + Metrics.ms(end-begin) + " milliseconds");
+		fresh = true;
+	    }
+
+	    if (verifier != null && str != null) {
+		put_string(verifier, str, exp[0], exp[0]+d);
+	    }
+	    /* digits a check found wrong are neither checkpointed nor cached */
+	    failed = mod_mismatch || hex_mismatch || (verifier != null && verifier.isMismatch());
+	    if (failed) {
+		log("checks failed: the result is not kept");
+	    }
+	    if (ckpt_dir != null && cached == null) {
+		if (failed) {
+		    ckpt_result_tmp(d).delete();
+		    ckpt_result(d).delete();
+		} else if (fresh && str != null) {
+		    ckpt_save_result(d, str, exp[0]);
+		} else if (fresh) {
+		    ckpt_commit_result(d);
+		}
+		if (fresh) {
+		    ckpt_drop(0, terms);
+		}
+	    }
+
+	    if (cache != null && cached == null) {
+		if (failed) {
+		    cache.discard(d);
+		} else {
+		    if (str != null) {
+			put_string(cache.writer(d), str, exp[0], exp[0]+d);
+		    }
+		    cache.commit(d);
+		}
+	    }
+	    if (cache != null && ckpt_dir != null && !failed) {
+		/* the cache has the result now */
+		ckpt_result(d).delete();
+		ckpt_dir.delete();
+	    }
+
+	    resultBuffer.setLength(0);
+	    if (str != null) {
+		resultBuffer.append("0.");
+		resultBuffer.append(str);
+		resultBuffer.append("E");
+		resultBuffer.append(Integer.toString(exp[0]));
+	    } else {
+		resultBuffer.append(d + " digits written to " + out_file.getPath());
+	    }
+	    if (note != null) {
+		resultBuffer.append("\n(" + note + ")");
+	    }
+
+	    if ((out&1) != 0 && str != null) {
+		log("qi(0," + terms + ")=0." + str + "E" + exp[0]);
+	    }
+	    if (verifier != null) {
+		if ((out&1) != 0) {
+		    log("verify: " + verifier.report());
+		}
+		resultBuffer.append("\n\n");
+		resultBuffer.append(verifier.report());
+	    }
+	    if (mod_note != null) {
+		resultBuffer.append("\n\n");
+		resultBuffer.append(mod_note);
+	    }
+	    if (hex_note != null) {
+		resultBuffer.append("\n\n");
+		resultBuffer.append(hex_note);
+	    }
+	    if ((out&2) != 0) {
+		log("metrics: " + metrics.toJSON());
+	    }
+	    if (metrics_file != null) {
+		metrics_save();
+	    }
+
+	    /* free float resources */
+	    arena.f_free(pi);
+	    arena.f_free(qi);
+	    arena.f_free(t2);
+	    pi = null;
+	    qi = null;
+
+	    t1 = null;
+	    t2 = null;
+	    return resultBuffer.toString();
+	}
+	catch (CancellationException e) {
+	    log("aborted: " + e.getMessage());
+	    abort_cleanup();
+	    throw e;
+	}
+	finally {
+	    par_level = par_level0;
+	    if (stage != null) {
+		if (sqrt_c != null) {
+		    /* the run failed: stop the square root at its next check_cancel */
+		    fail("run failed");
+		}
+		/* interrupts BBP and ModCheck */
+		drain(stage);
+	    }
+	    /* whatever a failed run still holds; nothing for one that finished */
+	    arena.close();
+	    t1 = null;
+	    t2 = null;
+	}
+    }
+
+    /* what a run that was given up leaves besides its numbers */
+    private void abort_cleanup()
+    {
+	sieve_stop();
+	if (spill_dir != null) {
+	    spill_clean();
+	}
+	if (out_file != null) {
+	    out_file.delete();
+	}
+    }
+}
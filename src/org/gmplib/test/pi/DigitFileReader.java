@@ -0,0 +1,54 @@
+package org.gmplib.test.pi;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads digits back from the text DigitFileWriter produces (any grouping)
+ * and passes them on to a sink, a buffer at a time.
+ */
+public class DigitFileReader
+{
+    private static final int BUFFER_SIZE = 1<<16;
+
+    /* the digits of f with at most decimals after the point (-1: all) */
+    public static void copy(File f, DigitSink sink, long decimals)
+        throws IOException
+    {
+	char[] buf = new char[BUFFER_SIZE];
+	StringBuilder ip = new StringBuilder();
+	boolean point = false;
+	long left = (decimals < 0 ? Long.MAX_VALUE : decimals);
+	int i, j, n;
+
+	Reader in = new FileReader(f);
+	try {
+	    while (left > 0 && (n = in.read(buf)) > 0) {
+		for (i = j = 0; i < n && j < left; i++) {
+		    char c = buf[i];
+		    if (c >= '0' && c <= '9') {
+			if (point) {
+			    buf[j++] = c;
+			} else {
+			    ip.append(c);
+			}
+		    } else if (c == '.' && !point) {
+			point = true;
+			sink.begin(ip.length());
+			sink.digits(ip.toString().toCharArray(), 0, ip.length());
+		    }
+		}
+		if (j > 0) {
+		    sink.digits(buf, 0, j);
+		    left -= j;
+		}
+	    }
+	    sink.end();
+	}
+	finally {
+	    in.close();
+	}
+    }
+}
@@ -0,0 +1,115 @@
+package org.gmplib.test.pi;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes digits as ASCII text to a file through a direct buffer, so only
+ * the buffer is ever in the heap.  The fraction is split into groups of
+ * group digits separated by a space, with line groups per line; 0 turns
+ * either off.  With both off the file is plain positional text.
+ */
+public class DigitFileWriter implements DigitSink
+{
+    private static final int BUFFER_SIZE = 1<<16;
+
+    private final File file;
+    private final int group;
+    private final int line;
+    private FileOutputStream os;
+    private FileChannel ch;
+    private ByteBuffer buf;
+    private long pos;           /* digits written, counted from the point */
+
+    public DigitFileWriter(File file, int group, int line)
+    {
+	this.file = file;
+	this.group = group;
+	this.line = line;
+    }
+
+    public File getFile()
+    {
+	return file;
+    }
+
+    public void begin(int exp)
+        throws IOException
+    {
+	os = new FileOutputStream(file);
+	ch = os.getChannel();
+	buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	if (exp > 0) {
+	    pos = -exp;
+	} else {
+	    /* 0.000ddd: the -exp zeros are decimals and are grouped as such */
+	    put('0');
+	    put('.');
+	    pos = 0;
+	    while (pos < -exp) {
+		digit('0');
+	    }
+	}
+    }
+
+    public void digits(char[] b, int off, int len)
+        throws IOException
+    {
+	int i;
+	for (i = off; i < off+len; i++) {
+	    digit(b[i]);
+	}
+    }
+
+    private void digit(char c)
+        throws IOException
+    {
+	if (pos > 0 && group > 0 && pos%group == 0) {
+	    put(line > 0 && pos%((long)group*line) == 0 ? '\n' : ' ');
+	}
+	put(c);
+	pos++;
+	if (pos == 0) {
+	    put('.');
+	}
+    }
+
+    public void end()
+        throws IOException
+    {
+	try {
+	    if (line > 0) {
+		put('\n');
+	    }
+	    flush();
+	}
+	finally {
+	    os.close();
+	    os = null;
+	    ch = null;
+	    buf = null;
+	}
+    }
+
+    private void put(char c)
+        throws IOException
+    {
+	if (!buf.hasRemaining()) {
+	    flush();
+	}
+	buf.put((byte)c);
+    }
+
+    private void flush()
+        throws IOException
+    {
+	buf.flip();
+	while (buf.hasRemaining()) {
+	    ch.write(buf);
+	}
+	buf.clear();
+    }
+}
@@ -0,0 +1,15 @@
+package org.gmplib.test.pi;
+
+import java.io.IOException;
+
+/**
+ * Receives the decimal digits of a result, most significant first, in
+ * chunks of any size.  begin gives the number of digits in front of the
+ * decimal point, like the exponent returned by mpf_get_str.
+ */
+public interface DigitSink
+{
+    void begin(int exp) throws IOException;
+    void digits(char[] buf, int off, int len) throws IOException;
+    void end() throws IOException;
+}
@@ -0,0 +1,36 @@
+package org.gmplib.test.pi;
+
+/**
+ * Collects the digits in memory, for results small enough to display.
+ */
+public class DigitString implements DigitSink
+{
+    private final StringBuilder sb = new StringBuilder();
+    private int exp;
+
+    public void begin(int exp)
+    {
+	this.exp = exp;
+	sb.setLength(0);
+    }
+
+    public void digits(char[] buf, int off, int len)
+    {
+	sb.append(buf, off, len);
+    }
+
+    public void end()
+    {
+    }
+
+    public int getExp()
+    {
+	return exp;
+    }
+
+    /* all digits, without the point */
+    public String toString()
+    {
+	return sb.toString();
+    }
+}
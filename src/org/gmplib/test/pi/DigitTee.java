@@ -0,0 +1,40 @@
+package org.gmplib.test.pi;
+
+import java.io.IOException;
+
+/**
+ * Passes the same digits on to several sinks.
+ */
+public class DigitTee implements DigitSink
+{
+    private final DigitSink[] sinks;
+
+    public DigitTee(DigitSink... sinks)
+    {
+	this.sinks = sinks;
+    }
+
+    public void begin(int exp)
+        throws IOException
+    {
+	for (DigitSink s : sinks) {
+	    s.begin(exp);
+	}
+    }
+
+    public void digits(char[] buf, int off, int len)
+        throws IOException
+    {
+	for (DigitSink s : sinks) {
+	    s.digits(buf, off, len);
+	}
+    }
+
+    public void end()
+        throws IOException
+    {
+	for (DigitSink s : sinks) {
+	    s.end();
+	}
+    }
+}
@@ -0,0 +1,186 @@
+package org.gmplib.test.pi;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Compares the digits it is sent with a reference file, either decimal
+ * text such as 50_pi.txt or the PackedDigits format.  The file is mapped a
+ * window at a time rather than read into memory, so only the pages holding
+ * the digits compared are ever loaded.  Characters other than digits in a
+ * text reference are skipped.  After end, getMatched gives the number of
+ * decimals that agree and report a line for the user.
+ */
+public class DigitVerifier implements DigitSink
+{
+    private static final long WINDOW = 1L<<26;
+
+    /* a reference without a point this far in is taken to start at it */
+    private static final int MAX_INT_DIGITS = 4096;
+
+    private final File file;
+    private RandomAccessFile raf;
+    private FileChannel ch;
+    private MappedByteBuffer map;
+    private long map_base;
+    private long size;
+    private long pos;
+    private boolean packed;
+    private long ndigits;       /* packed: digits in the file */
+    private long index;         /* packed: digits read */
+    private final char[] word = new char[PackedDigits.DIGITS_PER_WORD];
+    private int exp;
+    private long matched;       /* leading digits that agree */
+    private boolean failed;     /* digits differ, or the reference ran out */
+    private boolean exhausted;  /* the reference ran out */
+
+    public DigitVerifier(File file)
+    {
+	this.file = file;
+    }
+
+    public void begin(int exp)
+        throws IOException
+    {
+	this.exp = exp;
+	matched = 0;
+	failed = false;
+	exhausted = false;
+	raf = new RandomAccessFile(file, "r");
+	ch = raf.getChannel();
+	size = ch.size();
+	map = null;
+	pos = 0;
+	packed = (size >= PackedDigits.HEADER && get_int(0) == PackedDigits.MAGIC);
+	if (packed) {
+	    ndigits = ((long)get_int(8) << 32) | (get_int(12) & 0xffffffffL);
+	    index = 0;
+	    if (get_int(4) != exp) {
+		failed = true;
+	    }
+	} else {
+	    if (ref_exp() != exp) {
+		failed = true;
+	    }
+	    pos = 0;
+	}
+    }
+
+    public void digits(char[] buf, int off, int len)
+        throws IOException
+    {
+	int i, c;
+	if (failed) {
+	    return;
+	}
+	for (i = off; i < off+len; i++) {
+	    c = next();
+	    if (c < 0) {
+		exhausted = true;
+		failed = true;
+		return;
+	    }
+	    if (c != buf[i]) {
+		failed = true;
+		return;
+	    }
+	    matched++;
+	}
+    }
+
+    public void end()
+        throws IOException
+    {
+	map = null;
+	ch = null;
+	raf.close();
+	raf = null;
+    }
+
+    /* decimals after the point that agree with the reference */
+    public long getMatched()
+    {
+	return (matched > exp ? matched - exp : 0);
+    }
+
+    public boolean isMismatch()
+    {
+	return failed && !exhausted;
+    }
+
+    public String report()
+    {
+	if (!failed) {
+	    return "All " + getMatched() + " decimals match the reference";
+	}
+	if (exhausted) {
+	    return "All " + getMatched() + " decimals of the reference match";
+	}
+	return "First mismatch at decimal " + (getMatched()+1) + ", " + getMatched() + " match the reference";
+    }
+
+    /* digits in front of the point of the reference */
+    private int ref_exp()
+        throws IOException
+    {
+	int n = 0;
+	int c;
+	while (n <= MAX_INT_DIGITS && pos < size) {
+	    c = get(pos++);
+	    if (c == '.') {
+		return n;
+	    }
+	    if (c >= '0' && c <= '9') {
+		n++;
+	    }
+	}
+	return exp;
+    }
+
+    private int next()
+        throws IOException
+    {
+	int c;
+	if (packed) {
+	    if (index >= ndigits) {
+		return -1;
+	    }
+	    c = (int)(index % PackedDigits.DIGITS_PER_WORD);
+	    if (c == 0) {
+		int w = get_int(PackedDigits.HEADER + 4*(index / PackedDigits.DIGITS_PER_WORD));
+		for (int i = PackedDigits.DIGITS_PER_WORD-1; i >= 0; i--) {
+		    word[i] = (char)('0' + w%10);
+		    w /= 10;
+		}
+	    }
+	    index++;
+	    return word[c];
+	}
+	while (pos < size) {
+	    c = get(pos++);
+	    if (c >= '0' && c <= '9') {
+		return c;
+	    }
+	}
+	return -1;
+    }
+
+    private int get_int(long p)
+        throws IOException
+    {
+	return (get(p) << 24) | (get(p+1) << 16) | (get(p+2) << 8) | get(p+3);
+    }
+
+    private int get(long p)
+        throws IOException
+    {
+	if (map == null || p < map_base || p >= map_base + map.limit()) {
+	    map_base = p;
+	    map = ch.map(FileChannel.MapMode.READ_ONLY, p, Math.min(WINDOW, size - p));
+	}
+	return map.get((int)(p - map_base)) & 0xff;
+    }
+}
@@ -0,0 +1,414 @@
+package org.gmplib.test.pi;
+
+import java.io.File;
+
+import org.gmplib.gmpjni.GMP;
+import org.gmplib.gmpjni.GMP.mpz_t;
+import org.gmplib.gmpjni.GMP.mpf_t;
+import org.gmplib.gmpjni.GMP.GMPException;
+import org.gmplib.gmpjni.GMP.MutableInteger;
+
+/**
+ * MP backend on the native GMP library through the JNI bridge.
+ * GMP.init() must have succeeded before any method is called.
+ */
+public class GmpMP implements MP<mpz_t, mpf_t>
+{
+    public String name()
+    {
+	return "gmp";
+    }
+
+    public mpz_t z_new()
+        throws MPException
+    {
+	try {
+	    return new mpz_t();
+	}
+	catch (GMPException e) {
+	    throw new MPException(e);
+	}
+    }
+
+    public void z_set(mpz_t r, mpz_t a)
+        throws MPException
+    {
+	try {
+	    GMP.mpz_set(r, a);
+	}
+	catch (GMPException e) {
+	    throw new MPException(e);
+	}
+    }
+
+    public void z_set_ui(mpz_t r, long v)
+        throws MPException
+    {
+	try {
+	    GMP.mpz_set_ui(r, v);
+	}
+	catch (GMPException e) {
+	    throw new MPException(e);
+	}
+    }
+
+    public void z_mul_ui(mpz_t r, mpz_t a, long v)
+        throws MPException
+    {
+	try {
+	    GMP.mpz_mul_ui(r, a, v);
+	}
+	catch (GMPException e) {
+	    throw new MPException(e);
+	}
+    }
+
+    public void z_add_ui(mpz_t r, mpz_t a, long v)
+        throws MPException
+    {
+	try {
+	    GMP.mpz_add_ui(r, a, v);
+	}
+	catch (GMPException e) {
+	    throw new MPException(e);
+	}
+    }
+
+    public void z_addmul_ui(mpz_t r, mpz_t a, long v)
+        throws MPException
+    {
+	try {
+	    GMP.mpz_addmul_ui(r, a, v);
+	}
+	catch (GMPException e) {
+	    throw new MPException(e);
+	}
+    }
+
+    public void z_mul(mpz_t r, mpz_t a, mpz_t b)
+        throws MPException
+    {
+	try {
+	    GMP.mpz_mul(r, a, b);
+	}
+	catch (GMPException e) {
+	    throw new MPException(e);
+	}
+    }
+
+    public void z_add(mpz_t r, mpz_t a, mpz_t b)
+        throws MPException
+    {
+	try {
+	    GMP.mpz_add(r, a, b);
+	}
+	catch (GMPException e) {
+	    throw new MPException(e);
+	}
+    }
+
+    public void z_neg(mpz_t r, mpz_t a)
+        throws MPException
+    {
+	try {
+	    GMP.mpz_neg(r, a);
+	}
+	catch (GMPException e) {
+	    throw new MPException(e);
+	}
+    }
+
+    public void z_divexact(mpz_t r, mpz_t a, mpz_t b)
+        throws MPException
+    {
+	try {
+	    GMP.mpz_divexact(r, a, b);
+	}
+	catch (GMPException e) {
+	    throw new MPException(e);
+	}
+    }
+
+    public long z_sizeinbase(mpz_t a, int base)
+        throws MPException
+    {
+	try {
+	    return GMP.mpz_sizeinbase(a, base);
+	}
+	catch (GMPException e) {
+	    throw new MPException(e);
+	}
+    }
+
+    public void z_ui_pow_ui(mpz_t r, long b, long n)
+        throws MPException
+    {
+	try {
+	    GMP.mpz_ui_pow_ui(r, b, n);
+	}
+	catch (GMPException e) {
+	    throw new MPException(e);
+	}
+    }
+
+    public void z_tdiv_qr(mpz_t q, mpz_t r, mpz_t n, mpz_t d)
+        throws MPException
+    {
+	try {
+	    GMP.mpz_tdiv_qr(q, r, n, d);
+	}
+	catch (GMPException e) {
+	    throw new MPException(e);
+	}
+    }
+
+    public void z_tdiv_r(mpz_t r, mpz_t n, mpz_t d)
+        throws MPException
+    {
+	try {
+	    GMP.mpz_tdiv_r(r, n, d);
+	}
+	catch (GMPException e) {
+	    throw new MPException(e);
+	}
+    }
+
+    public void z_mul_2exp(mpz_t r, mpz_t a, long n)
+        throws MPException
+    {
+	try {
+	    GMP.mpz_mul_2exp(r, a, n);
+	}
+	catch (GMPException e) {
+	    throw new MPException(e);
+	}
+    }
+
+    public void z_tdiv_q_2exp(mpz_t r, mpz_t a, long n)
+        throws MPException
+    {
+	try {
+	    GMP.mpz_tdiv_q_2exp(r, a, n);
+	}
+	catch (GMPException e) {
+	    throw new MPException(e);
+	}
+    }
+
+    public void z_set_f(mpz_t r, mpf_t a)
+        throws MPException
+    {
+	try {
+	    GMP.mpz_set_f(r, a);
+	}
+	catch (GMPException e) {
+	    throw new MPException(e);
+	}
+    }
+
+    public String z_get_str(int base, mpz_t a)
+        throws MPException
+    {
+	try {
+	    return GMP.mpz_get_str(base, a);
+	}
+	catch (GMPException e) {
+	    throw new MPException(e);
+	}
+    }
+
+    public void z_release(mpz_t r)
+        throws MPException
+    {
+	try {
+	    /* realloc2 keeps a value that still fits */
+	    GMP.mpz_set_ui(r, 0);
+	    GMP.mpz_realloc2(r, 64);
+	}
+	catch (GMPException e) {
+	    throw new MPException(e);
+	}
+    }
+
+    public void z_save(mpz_t a, File f)
+        throws MPException
+    {
+	try {
+	    GMP.mpz_out_raw(f.getPath(), a);
+	}
+	catch (GMPException e) {
+	    throw new MPException(e);
+	}
+    }
+
+    public void z_load(mpz_t r, File f)
+        throws MPException
+    {
+	try {
+	    GMP.mpz_inp_raw(r, f.getPath());
+	}
+	catch (GMPException e) {
+	    throw new MPException(e);
+	}
+    }
+
+    public mpf_t f_new(long prec)
+        throws MPException
+    {
+	try {
+	    mpf_t r = new mpf_t();
+	    GMP.mpf_set_prec(r, prec);
+	    return r;
+	}
+	catch (GMPException e) {
+	    throw new MPException(e);
+	}
+    }
+
+    public long f_get_prec(mpf_t r)
+        throws MPException
+    {
+	try {
+	    return GMP.mpf_get_prec(r);
+	}
+	catch (GMPException e) {
+	    throw new MPException(e);
+	}
+    }
+
+    public void f_release(mpf_t r)
+        throws MPException
+    {
+	try {
+	    GMP.mpf_set_ui(r, 0);
+	    GMP.mpf_set_prec(r, 64);
+	}
+	catch (GMPException e) {
+	    throw new MPException(e);
+	}
+    }
+
+    public void f_set_prec_raw(mpf_t r, long prec)
+        throws MPException
+    {
+	try {
+	    GMP.mpf_set_prec_raw(r, prec);
+	}
+	catch (GMPException e) {
+	    throw new MPException(e);
+	}
+    }
+
+    public void f_set_d(mpf_t r, double d)
+        throws MPException
+    {
+	try {
+	    GMP.mpf_set_d(r, d);
+	}
+	catch (GMPException e) {
+	    throw new MPException(e);
+	}
+    }
+
+    public void f_set_z(mpf_t r, mpz_t a)
+        throws MPException
+    {
+	try {
+	    GMP.mpf_set_z(r, a);
+	}
+	catch (GMPException e) {
+	    throw new MPException(e);
+	}
+    }
+
+    public void f_mul(mpf_t r, mpf_t a, mpf_t b)
+        throws MPException
+    {
+	try {
+	    GMP.mpf_mul(r, a, b);
+	}
+	catch (GMPException e) {
+	    throw new MPException(e);
+	}
+    }
+
+    public void f_mul_ui(mpf_t r, mpf_t a, long v)
+        throws MPException
+    {
+	try {
+	    GMP.mpf_mul_ui(r, a, v);
+	}
+	catch (GMPException e) {
+	    throw new MPException(e);
+	}
+    }
+
+    public void f_div(mpf_t r, mpf_t a, mpf_t b)
+        throws MPException
+    {
+	try {
+	    GMP.mpf_div(r, a, b);
+	}
+	catch (GMPException e) {
+	    throw new MPException(e);
+	}
+    }
+
+    public void f_add(mpf_t r, mpf_t a, mpf_t b)
+        throws MPException
+    {
+	try {
+	    GMP.mpf_add(r, a, b);
+	}
+	catch (GMPException e) {
+	    throw new MPException(e);
+	}
+    }
+
+    public void f_ui_sub(mpf_t r, long u, mpf_t a)
+        throws MPException
+    {
+	try {
+	    GMP.mpf_ui_sub(r, u, a);
+	}
+	catch (GMPException e) {
+	    throw new MPException(e);
+	}
+    }
+
+    public void f_div_2exp(mpf_t r, mpf_t a, long n)
+        throws MPException
+    {
+	try {
+	    GMP.mpf_div_2exp(r, a, n);
+	}
+	catch (GMPException e) {
+	    throw new MPException(e);
+	}
+    }
+
+    public void f_abs(mpf_t r, mpf_t a)
+        throws MPException
+    {
+	try {
+	    GMP.mpf_abs(r, a);
+	}
+	catch (GMPException e) {
+	    throw new MPException(e);
+	}
+    }
+
+    public String f_get_str(int[] exp, int base, long n, mpf_t a)
+        throws MPException
+    {
+	try {
+	    MutableInteger e = new MutableInteger(0);
+	    String s = GMP.mpf_get_str(e, base, n, a);
+	    exp[0] = e.value;
+	    return s;
+	}
+	catch (GMPException e) {
+	    throw new MPException(e);
+	}
+    }
+}
@@ -0,0 +1,481 @@
+package org.gmplib.test.pi;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Sums a Series by binary splitting in the form of Haible and Papanikolaou:
+ * over the terms [a,b), P and Q are the products of p and q, B that of b,
+ * and T is B*Q times the partial sum, so S = T/(B*Q) over all terms.  As in
+ * Chudnovsky's bs the numbers live on per-level stacks, the top par_level
+ * levels fork their left half to a pool, and nothing is computed that no
+ * merge uses: P along the right edge of the tree and for a series without
+ * p, B for a series without b.  The Chudnovsky run that owns it does
+ * cancellation, metrics and progress.
+ *
+ * For series whose p and q are close, P, Q, B and T grow several times
+ * larger than the precision of the result, and the top merges multiply
+ * numbers mostly made of bits the quotient never sees.  With keep bits
+ * set, an operand longer than keep is cut to its top keep bits before it
+ * is multiplied, and carried as z*2^e; each entry also carries a bound on
+ * its relative error, in units of 2^(1-keep), so that good_bits() can say
+ * how much of the quotient is right.
+ */
+public class Hypergeometric<Z, F>
+{
+    private final Chudnovsky<Z, F> run;
+    private final MP<Z, F> mp;
+    private final Series series;
+    private final boolean has_p;
+    private final boolean has_b;
+    private ExecutorService pool;
+    private int par_level;
+    private double split_ratio = Tuning.SPLIT_RATIO;
+    private double bits_per_term = 1;
+    private long keep;          /* 0: exact */
+    private double root_err;
+    private ctx root;
+
+    /* the numbers of an entry, for e and u */
+    private static final int P = 0;
+    private static final int Q = 1;
+    private static final int B = 2;
+    private static final int T = 3;
+
+    /* the P, Q, B and T stacks of one thread, indexed by top */
+    class ctx
+    {
+	final Z[] p;
+	final Z[] q;
+	final Z[] b;
+	final Z[] t;
+	final long[][] e = new long[4][];       /* the entry is z*2^e */
+	final double[][] u = new double[4][];   /* its relative error bound */
+	int top;
+
+	ctx(int depth)
+	    throws MPException
+	{
+	    int i;
+	    p = new_z_array(depth);
+	    q = new_z_array(depth);
+	    b = new_z_array(depth);
+	    t = new_z_array(depth);
+	    for (i = 0; i < 4; i++) {
+		e[i] = new long[depth];
+		u[i] = new double[depth];
+	    }
+	    for (i = 0; i < depth; i++) {
+		p[i] = (has_p ? run.arena().z_new() : null);
+		q[i] = run.arena().z_new();
+		b[i] = (has_b ? run.arena().z_new() : null);
+		t[i] = run.arena().z_new();
+	    }
+	}
+
+	Z[] z(int v)
+	{
+	    return (v == P ? p : v == Q ? q : v == B ? b : t);
+	}
+
+	void release()
+	{
+	    try {
+		release_all(p);
+		release_all(q);
+		release_all(b);
+		release_all(t);
+	    }
+	    catch (MPException e) {
+	    }
+	}
+
+	private void release_all(Z[] z)
+	    throws MPException
+	{
+	    int i;
+	    for (i = 0; i < z.length; i++) {
+		if (z[i] != null) {
+		    run.arena().z_free(z[i]);
+		    z[i] = null;
+		}
+	    }
+	}
+
+	/* exchange entry src.top of src with entry top */
+	void swap_top(ctx src)
+	{
+	    Z z;
+	    z = p[top]; p[top] = src.p[src.top]; src.p[src.top] = z;
+	    z = q[top]; q[top] = src.q[src.top]; src.q[src.top] = z;
+	    z = b[top]; b[top] = src.b[src.top]; src.b[src.top] = z;
+	    z = t[top]; t[top] = src.t[src.top]; src.t[src.top] = z;
+	    for (int v = 0; v < 4; v++) {
+		e[v][top] = src.e[v][src.top];
+		u[v][top] = src.u[v][src.top];
+	    }
+	}
+    }
+
+    public Hypergeometric(Chudnovsky<Z, F> run, MP<Z, F> mp, Series series)
+    {
+	this.run = run;
+	this.mp = mp;
+	this.series = series;
+	this.has_p = series.has_p();
+	this.has_b = series.has_b();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Z[] new_z_array(int n)
+    {
+	return (Z[])new Object[n];
+    }
+
+    public MP<Z, F> mp()
+    {
+	return mp;
+    }
+
+    /* r = sqrt(x) at the precision of r */
+    public void sqrt_ui(F r, long x)
+        throws MPException
+    {
+	run.my_sqrt_ui(r, x);
+    }
+
+    /* r = a/v */
+    public void div_ui(F r, F a, long v)
+        throws MPException
+    {
+	F t = run.arena().f_new(mp.f_get_prec(r));
+	mp.f_set_d(t, (double)v);
+	mp.f_div(r, a, t);
+	run.arena().f_free(t);
+    }
+
+    /* r = u/a */
+    public void ui_div(F r, long u, F a)
+        throws MPException
+    {
+	F t = run.arena().f_new(mp.f_get_prec(r));
+	mp.f_set_d(t, (double)u);
+	mp.f_div(r, t, a);
+	run.arena().f_free(t);
+    }
+
+    /*
+     * Set the split of the tree and measure the terms, for cost().  keep is
+     * the bits operands are cut to, 0 to multiply them whole.
+     */
+    void init(int terms, double split_ratio, long keep)
+        throws MPException
+    {
+	Z z = run.arena().z_new();
+	long k = Math.max(1, terms/2);
+	long bits;
+
+	this.split_ratio = split_ratio;
+	this.keep = keep;
+	series.q(mp, z, k);
+	bits = mp.z_sizeinbase(z, 2);
+	if (has_p) {
+	    series.p(mp, z, k);
+	    bits += mp.z_sizeinbase(z, 2);
+	}
+	if (has_b) {
+	    series.b(mp, z, k);
+	    bits += mp.z_sizeinbase(z, 2);
+	}
+	run.arena().z_free(z);
+	bits_per_term = (double)bits;
+    }
+
+    private int mid(int a, int b)
+    {
+	return (int)((double)a+(double)(b-a)*split_ratio);
+    }
+
+    /* levels of the tree over [a,b) */
+    private int depth(int a, int b)
+    {
+	if (b-a == 1) {
+	    return 1;
+	}
+	int m = mid(a, b);
+	return 1 + Math.max(depth(a, m), depth(m, b));
+    }
+
+    /* full multiplications of a merge */
+    private int merge_muls()
+    {
+	return 2 + (has_p ? 2 : 0) + (has_b ? 3 : 0);
+    }
+
+    private long merge_cost(int n)
+    {
+	long bits = (long)((double)n*bits_per_term/2);
+	if (keep > 0) {
+	    bits = Math.min(bits, keep);
+	}
+	return merge_muls()*Progress.mul_cost(bits, run.tune.mul_exponent);
+    }
+
+    /* work of bs(a,b), in the units of Progress */
+    long cost(int a, int b)
+    {
+	if (b-a == 1) {
+	    return merge_cost(2);
+	}
+	int m = mid(a, b);
+	return cost(a, m) + cost(m, b) + merge_cost(b-a);
+    }
+
+    /* bs over all terms, forking the top par_level levels to a pool */
+    void sum(int terms, int par_level)
+        throws MPException
+    {
+	boolean done = false;
+	this.par_level = par_level;
+	root = new ctx(depth(0, terms)+1);
+	if (par_level > 0) {
+	    pool = Executors.newCachedThreadPool();
+	}
+	try {
+	    bs(root, 0, terms, false, 0);
+	    done = true;
+	}
+	finally {
+	    if (pool != null) {
+		if (!done) {
+		    run.fail("binary splitting failed");
+		}
+		Chudnovsky.drain(pool);
+		pool = null;
+	    }
+	}
+    }
+
+    /* s = T/(B*Q) of the last sum, at the precision of s; frees the stacks */
+    void quotient(F s)
+        throws MPException
+    {
+	F f = run.arena().f_new(mp.f_get_prec(s));
+	Z q = root.q[0];
+	Z t = root.t[0];
+	long e;
+	if (has_b) {
+	    mul(0, root, Q, 0, B, 0);
+	}
+	/* the powers of 2 cancel but for their difference */
+	e = root.e[T][0] - root.e[Q][0];
+	if (e > 0) {
+	    mp.z_mul_2exp(t, t, e);
+	} else if (e < 0) {
+	    mp.z_mul_2exp(q, q, -e);
+	}
+	root_err = root.u[T][0] + root.u[Q][0];
+	mp.f_set_z(s, t);
+	mp.f_set_z(f, q);
+	release();
+	mp.f_div(s, s, f);
+	run.arena().f_free(f);
+    }
+
+    /*
+     * The leading bits of the last quotient that the cuts cannot have
+     * changed, before its own rounding; Long.MAX_VALUE when none were made.
+     */
+    long good_bits()
+    {
+	if (root_err == 0) {
+	    return Long.MAX_VALUE;
+	}
+	return keep - 1 - (long)Math.ceil(Math.log(root_err)/Math.log(2));
+    }
+
+    /* entry i of v down to its top keep bits, if longer */
+    private void cut(ctx c, int v, int i)
+        throws MPException
+    {
+	Z z = c.z(v)[i];
+	long n;
+	if (keep == 0) {
+	    return;
+	}
+	n = mp.z_sizeinbase(z, 2) - keep;
+	if (n > 0) {
+	    mp.z_tdiv_q_2exp(z, z, n);
+	    c.e[v][i] += n;
+	    c.u[v][i] += 1;
+	}
+    }
+
+    /* entry i of v times entry j of w; the bounds add, to first order */
+    private void mul(int level, ctx c, int v, int i, int w, int j)
+        throws MPException
+    {
+	run.z_mul(level, c.z(v)[i], c.z(v)[i], c.z(w)[j]);
+	c.e[v][i] += c.e[w][j];
+	c.u[v][i] += c.u[w][j];
+    }
+
+    /*
+     * T entry i plus T entry j.  The one with the larger exponent is
+     * shifted up to the other, which is exact; the error bound of the sum
+     * is that of the terms scaled by their size over the size of the sum,
+     * |x| being between 2^(bits+e-1) and 2^(bits+e).
+     */
+    private void add_t(ctx c, int i, int j)
+        throws MPException
+    {
+	Z a = c.t[i];
+	Z b = c.t[j];
+	long ea = c.e[T][i];
+	long eb = c.e[T][j];
+	long xa = mp.z_sizeinbase(a, 2) + ea;
+	long xb = mp.z_sizeinbase(b, 2) + eb;
+	long xs;
+	if (ea > eb) {
+	    mp.z_mul_2exp(a, a, ea - eb);
+	    ea = eb;
+	} else if (eb > ea) {
+	    mp.z_mul_2exp(b, b, eb - ea);
+	}
+	mp.z_add(a, a, b);
+	c.e[T][i] = ea;
+	if (c.u[T][i] != 0 || c.u[T][j] != 0) {
+	    xs = mp.z_sizeinbase(a, 2) + ea;
+	    c.u[T][i] = Math.scalb(c.u[T][i], (int)Math.min(xa - xs + 1, 1024)) +
+		Math.scalb(c.u[T][j], (int)Math.min(xb - xs + 1, 1024));
+	}
+    }
+
+    /* drop the stacks, after quotient or a failed sum */
+    void release()
+    {
+	if (root != null) {
+	    root.release();
+	    root = null;
+	}
+    }
+
+    /*
+     * The terms [a,b) into entry top of ctx.  need_p is false on the right
+     * edge of the tree, where P is never multiplied into anything.
+     */
+    private void bs(ctx c, int a, int b, boolean need_p, int level)
+        throws MPException
+    {
+	int top = c.top;
+	int m;
+
+	run.check_cancel();
+	if (b-a == 1) {
+	    int v;
+	    for (v = 0; v < 4; v++) {
+		c.e[v][top] = 0;
+		c.u[v][top] = 0;
+	    }
+	    /* P = p(a), Q = q(a), B = b(a), T = a(a)*p(a), with p(0) = q(0) = 1 */
+	    if (a == 0) {
+		if (has_p) {
+		    mp.z_set_ui(c.p[top], 1);
+		}
+		mp.z_set_ui(c.q[top], 1);
+	    } else {
+		if (has_p) {
+		    series.p(mp, c.p[top], a);
+		}
+		series.q(mp, c.q[top], a);
+	    }
+	    if (has_b) {
+		series.b(mp, c.b[top], a);
+	    }
+	    series.a(mp, c.t[top], a);
+	    if (has_p) {
+		mp.z_mul(c.t[top], c.t[top], c.p[top]);
+	    }
+	    run.bs_progress(merge_cost(2));
+	    return;
+	}
+
+	m = mid(a, b);
+	if (level < par_level && pool != null) {
+	    /* left half in a fresh context on the pool, right one here */
+	    final ctx lc = new ctx(depth(a, m));
+	    final int la = a;
+	    final int lb = m;
+	    final int ll = level+1;
+	    Future<?> left = pool.submit(new Callable<Void>() {
+		public Void call()
+		    throws MPException
+		{
+		    boolean done = false;
+		    try {
+			bs(lc, la, lb, true, ll);
+			done = true;
+		    }
+		    finally {
+			if (!done) {
+			    run.fail("binary splitting failed");
+			    lc.release();
+			}
+		    }
+		    return null;
+		}
+	    });
+
+	    c.top++;
+	    bs(c, m, b, need_p, level+1);
+	    c.top--;
+
+	    Chudnovsky.join(left);
+	    c.swap_top(lc);
+	    lc.release();
+	} else {
+	    bs(c, a, m, true, level+1);
+	    c.top++;
+	    bs(c, m, b, need_p, level+1);
+	    c.top--;
+	}
+
+	if (level < Chudnovsky.SAMPLE_LEVELS) {
+	    run.getMetrics().sample();
+	    run.check_memory();
+	}
+
+	/*
+	  T = Br*Qr*Tl + Bl*Pl*Tr
+	  P = Pl*Pr, Q = Ql*Qr, B = Bl*Br
+	*/
+	int l = top;
+	int r = top+1;
+
+	cut(c, T, l);
+	cut(c, T, r);
+	cut(c, Q, l);
+	cut(c, Q, r);
+	if (has_b) {
+	    cut(c, B, l);
+	    cut(c, B, r);
+	    mul(level, c, T, l, B, r);
+	    mul(level, c, T, r, B, l);
+	    mul(level, c, B, l, B, r);
+	}
+	mul(level, c, T, l, Q, r);
+	if (has_p) {
+	    cut(c, P, l);
+	    mul(level, c, T, r, P, l);
+	}
+	add_t(c, l, r);
+	mul(level, c, Q, l, Q, r);
+	if (has_p && need_p) {
+	    cut(c, P, r);
+	    mul(level, c, P, l, P, r);
+	}
+	run.bs_progress(merge_cost(b-a));
+    }
+}
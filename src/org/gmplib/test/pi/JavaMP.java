@@ -0,0 +1,452 @@
+package org.gmplib.test.pi;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * MP backend on java.math.BigInteger, for hosts where the native GMP bridge
+ * is missing.  A float is man*2^exp with man truncated toward zero after
+ * every operation to the width an mpf_t of the same precision carries
+ * (whole limbs plus one), which is what the mpf code in Chudnovsky relies on:
+ * the Newton steps in my_sqrt_ui need that slack to keep all their bits.
+ */
+public class JavaMP implements MP<JavaMP.Int, JavaMP.Flt>
+{
+    private static final int LIMB_BITS = 64;
+
+    /* operands are cut to this many bits beyond the destination width */
+    private static final int GUARD_BITS = 32;
+
+    public static class Int
+    {
+	public BigInteger v = BigInteger.ZERO;
+    }
+
+    public static class Flt
+    {
+	public BigInteger man = BigInteger.ZERO;
+	public long exp;
+	public long prec;
+    }
+
+    public String name()
+    {
+	return "java";
+    }
+
+    /* integers */
+
+    public Int z_new()
+    {
+	return new Int();
+    }
+
+    public void z_set(Int r, Int a)
+    {
+	r.v = a.v;
+    }
+
+    public void z_set_ui(Int r, long v)
+    {
+	r.v = BigInteger.valueOf(v);
+    }
+
+    public void z_mul_ui(Int r, Int a, long v)
+    {
+	r.v = a.v.multiply(BigInteger.valueOf(v));
+    }
+
+    public void z_add_ui(Int r, Int a, long v)
+    {
+	r.v = a.v.add(BigInteger.valueOf(v));
+    }
+
+    public void z_addmul_ui(Int r, Int a, long v)
+    {
+	r.v = r.v.add(a.v.multiply(BigInteger.valueOf(v)));
+    }
+
+    public void z_mul(Int r, Int a, Int b)
+    {
+	r.v = a.v.multiply(b.v);
+    }
+
+    public void z_add(Int r, Int a, Int b)
+    {
+	r.v = a.v.add(b.v);
+    }
+
+    public void z_neg(Int r, Int a)
+    {
+	r.v = a.v.negate();
+    }
+
+    public void z_divexact(Int r, Int a, Int b)
+        throws MPException
+    {
+	if (b.v.signum() == 0) {
+	    throw new MPException("z_divexact: division by zero");
+	}
+	r.v = a.v.divide(b.v);
+    }
+
+    public long z_sizeinbase(Int a, int base)
+    {
+	long bits = a.v.abs().bitLength();
+	if (bits == 0) {
+	    return 1;
+	}
+	if (base == 2) {
+	    return bits;
+	}
+	/* like mpz_sizeinbase this may be one too big */
+	return (long)((double)bits*Math.log(2.0)/Math.log((double)base)) + 1;
+    }
+
+    public void z_ui_pow_ui(Int r, long b, long n)
+    {
+	r.v = BigInteger.valueOf(b).pow((int)n);
+    }
+
+    public void z_tdiv_qr(Int q, Int r, Int n, Int d)
+        throws MPException
+    {
+	if (d.v.signum() == 0) {
+	    throw new MPException("z_tdiv_qr: division by zero");
+	}
+	BigInteger[] qr = n.v.divideAndRemainder(d.v);
+	q.v = qr[0];
+	r.v = qr[1];
+    }
+
+    public void z_tdiv_r(Int r, Int n, Int d)
+        throws MPException
+    {
+	if (d.v.signum() == 0) {
+	    throw new MPException("z_tdiv_r: division by zero");
+	}
+	r.v = n.v.remainder(d.v);
+    }
+
+    public void z_mul_2exp(Int r, Int a, long n)
+    {
+	r.v = a.v.shiftLeft((int)n);
+    }
+
+    /* toward zero, where shiftRight rounds toward minus infinity */
+    public void z_tdiv_q_2exp(Int r, Int a, long n)
+    {
+	if (a.v.signum() < 0) {
+	    r.v = a.v.negate().shiftRight((int)n).negate();
+	} else {
+	    r.v = a.v.shiftRight((int)n);
+	}
+    }
+
+    public void z_set_f(Int r, Flt a)
+    {
+	if (a.exp >= 0) {
+	    r.v = a.man.shiftLeft((int)a.exp);
+	} else if (a.man.signum() < 0) {
+	    r.v = a.man.negate().shiftRight((int)-a.exp).negate();
+	} else {
+	    r.v = a.man.shiftRight((int)-a.exp);
+	}
+    }
+
+    public String z_get_str(int base, Int a)
+    {
+	return a.v.toString(base);
+    }
+
+    public void z_release(Int r)
+    {
+	r.v = BigInteger.ZERO;
+    }
+
+    /* through a mapping of the file, so the bytes go straight to the page cache */
+    public void z_save(Int a, File f)
+        throws MPException
+    {
+	byte[] m = a.v.abs().toByteArray();
+	int off = (m[0] == 0 ? 1 : 0);
+	int len = m.length - off;
+
+	try {
+	    RandomAccessFile raf = new RandomAccessFile(f, "rw");
+	    try {
+		raf.setLength(4 + len);
+		MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, 4 + len);
+		buf.putInt(a.v.signum() < 0 ? -len : len);
+		buf.put(m, off, len);
+	    }
+	    finally {
+		raf.close();
+	    }
+	}
+	catch (IOException e) {
+	    throw new MPException(e);
+	}
+    }
+
+    public void z_load(Int r, File f)
+        throws MPException
+    {
+	try {
+	    RandomAccessFile raf = new RandomAccessFile(f, "r");
+	    try {
+		MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		int size = buf.getInt();
+		byte[] m = new byte[Math.abs(size)];
+		buf.get(m);
+		r.v = new BigInteger(size < 0 ? -1 : (size > 0 ? 1 : 0), m);
+	    }
+	    finally {
+		raf.close();
+	    }
+	}
+	catch (IOException e) {
+	    throw new MPException(e);
+	}
+    }
+
+    /* floats */
+
+    private static int bitlen(BigInteger m)
+    {
+	return m.abs().bitLength();
+    }
+
+    /* m/2^n rounded toward zero */
+    private static BigInteger trunc(BigInteger m, long n)
+    {
+	if (n <= 0) {
+	    return m;
+	}
+	if (m.signum() < 0) {
+	    return m.negate().shiftRight((int)n).negate();
+	}
+	return m.shiftRight((int)n);
+    }
+
+    /* mantissa bits kept for precision prec, as in __GMPF_BITS_TO_PREC + 1 */
+    private static long width(long prec)
+    {
+	return ((prec + 2*LIMB_BITS - 1)/LIMB_BITS + 1)*LIMB_BITS;
+    }
+
+    private static void set(Flt r, BigInteger man, long exp)
+    {
+	long n = bitlen(man) - width(r.prec);
+	if (n > 0) {
+	    man = trunc(man, n);
+	    exp += n;
+	}
+	if (man.signum() == 0) {
+	    exp = 0;
+	}
+	r.man = man;
+	r.exp = exp;
+    }
+
+    /* mantissa of a cut to at most bits bits, the dropped count in drop[0] */
+    private static BigInteger cut(Flt a, long bits, long[] drop)
+    {
+	long n = bitlen(a.man) - bits;
+	if (n > 0) {
+	    drop[0] = n;
+	    return trunc(a.man, n);
+	}
+	drop[0] = 0;
+	return a.man;
+    }
+
+    /* r = am*2^ae + bm*2^be */
+    private static void add(Flt r, BigInteger am, long ae, BigInteger bm, long be)
+    {
+	long atop, btop, e;
+
+	if (am.signum() == 0) {
+	    set(r, bm, be);
+	    return;
+	}
+	if (bm.signum() == 0) {
+	    set(r, am, ae);
+	    return;
+	}
+	atop = ae + bitlen(am);
+	btop = be + bitlen(bm);
+	e = Math.max(atop, btop) - width(r.prec) - GUARD_BITS;
+	if (am.signum() != bm.signum() && Math.min(atop, btop) >= e) {
+	    /* leading bits may cancel: keep them all, as mpf_sub does */
+	    e = Math.min(ae, be);
+	} else {
+	    e = Math.max(Math.min(ae, be), e);
+	}
+	am = (ae >= e ? am.shiftLeft((int)(ae-e)) : trunc(am, e-ae));
+	bm = (be >= e ? bm.shiftLeft((int)(be-e)) : trunc(bm, e-be));
+	set(r, am.add(bm), e);
+    }
+
+    public Flt f_new(long prec)
+    {
+	Flt r = new Flt();
+	r.prec = prec;
+	return r;
+    }
+
+    public long f_get_prec(Flt r)
+    {
+	return r.prec;
+    }
+
+    public void f_release(Flt r)
+    {
+	r.man = BigInteger.ZERO;
+	r.exp = 0;
+	r.prec = 64;
+    }
+
+    public void f_set_prec_raw(Flt r, long prec)
+    {
+	r.prec = prec;
+    }
+
+    public void f_set_d(Flt r, double d)
+    {
+	long bits, man;
+	int e;
+
+	if (d == 0.0) {
+	    set(r, BigInteger.ZERO, 0);
+	    return;
+	}
+	bits = Double.doubleToLongBits(d);
+	e = (int)((bits >> 52) & 0x7ff);
+	man = bits & ((1L << 52) - 1);
+	if (e == 0) {
+	    e = 1;
+	} else {
+	    man |= 1L << 52;
+	}
+	set(r, BigInteger.valueOf(d < 0 ? -man : man), e - 1075);
+    }
+
+    public void f_set_z(Flt r, Int a)
+    {
+	set(r, a.v, 0);
+    }
+
+    public void f_mul(Flt r, Flt a, Flt b)
+    {
+	long[] da = new long[1];
+	long[] db = new long[1];
+	BigInteger am = cut(a, width(r.prec) + GUARD_BITS, da);
+	BigInteger bm = cut(b, width(r.prec) + GUARD_BITS, db);
+	set(r, am.multiply(bm), a.exp + da[0] + b.exp + db[0]);
+    }
+
+    public void f_mul_ui(Flt r, Flt a, long v)
+    {
+	set(r, a.man.multiply(BigInteger.valueOf(v)), a.exp);
+    }
+
+    public void f_div(Flt r, Flt a, Flt b)
+        throws MPException
+    {
+	long[] db = new long[1];
+	BigInteger bm, am;
+	long k;
+
+	if (b.man.signum() == 0) {
+	    throw new MPException("f_div: division by zero");
+	}
+	bm = cut(b, width(r.prec) + GUARD_BITS, db);
+	k = width(r.prec) + 2 + bitlen(bm) - bitlen(a.man);
+	am = (k >= 0 ? a.man.shiftLeft((int)k) : trunc(a.man, -k));
+	set(r, am.divide(bm), a.exp - k - b.exp - db[0]);
+    }
+
+    public void f_add(Flt r, Flt a, Flt b)
+    {
+	add(r, a.man, a.exp, b.man, b.exp);
+    }
+
+    public void f_ui_sub(Flt r, long u, Flt a)
+    {
+	add(r, BigInteger.valueOf(u), 0, a.man.negate(), a.exp);
+    }
+
+    public void f_div_2exp(Flt r, Flt a, long n)
+    {
+	set(r, a.man, a.exp - n);
+    }
+
+    public void f_abs(Flt r, Flt a)
+    {
+	set(r, a.man.abs(), a.exp);
+    }
+
+    /* floor(|man|*2^exp*base^k) */
+    private static BigInteger scale(BigInteger man, long exp, int base, long k)
+    {
+	BigInteger num = man.abs();
+	BigInteger den = BigInteger.ONE;
+	BigInteger b = BigInteger.valueOf(base);
+
+	if (exp > 0) {
+	    num = num.shiftLeft((int)exp);
+	} else if (exp < 0) {
+	    den = den.shiftLeft((int)-exp);
+	}
+	if (k > 0) {
+	    num = num.multiply(b.pow((int)k));
+	} else if (k < 0) {
+	    den = den.multiply(b.pow((int)-k));
+	}
+	return num.divide(den);
+    }
+
+    public String f_get_str(int[] exp, int base, long n, Flt a)
+    {
+	BigInteger b = BigInteger.valueOf(base);
+	BigInteger h = BigInteger.valueOf(base/2);
+	String s;
+	long e;
+	int len;
+
+	if (a.man.signum() == 0) {
+	    exp[0] = 0;
+	    return "";
+	}
+	/* |a| < base^e, and at most one digit off the other way */
+	e = (long)Math.ceil((double)(bitlen(a.man) + a.exp)*Math.log(2.0)/Math.log((double)base));
+	for (;;) {
+	    /* one extra digit for rounding to nearest */
+	    s = scale(a.man, a.exp, base, n + 1 - e).toString(base);
+	    if (s.length() > n + 1) {
+		e++;
+	    } else if (s.length() < n + 1) {
+		e--;
+	    } else {
+		break;
+	    }
+	}
+	s = new BigInteger(s, base).add(h).divide(b).toString(base);
+	if (s.length() > n) {
+	    /* rounding carried into a new digit */
+	    s = s.substring(0, (int)n);
+	    e++;
+	}
+	len = s.length();
+	while (len > 0 && s.charAt(len - 1) == '0') {
+	    len--;
+	}
+	exp[0] = (int)e;
+	return (a.man.signum() < 0 ? "-" : "") + s.substring(0, len);
+    }
+}
@@ -0,0 +1,61 @@
+package org.gmplib.test.pi;
+
+import java.io.File;
+
+/**
+ * Big-number backend used by the Chudnovsky code.  The operations mirror the
+ * GMP mpz/mpf calls of the C original, with the destination first; Z and F
+ * are the backend's integer and float types.
+ */
+public interface MP<Z, F>
+{
+    String name();
+
+    /* integers */
+    Z    z_new() throws MPException;
+    void z_set(Z r, Z a) throws MPException;
+    void z_set_ui(Z r, long v) throws MPException;
+    void z_mul_ui(Z r, Z a, long v) throws MPException;
+    void z_add_ui(Z r, Z a, long v) throws MPException;
+    void z_addmul_ui(Z r, Z a, long v) throws MPException;
+    void z_mul(Z r, Z a, Z b) throws MPException;
+    void z_add(Z r, Z a, Z b) throws MPException;
+    void z_neg(Z r, Z a) throws MPException;
+    void z_divexact(Z r, Z a, Z b) throws MPException;
+    long z_sizeinbase(Z a, int base) throws MPException;
+    void z_ui_pow_ui(Z r, long b, long n) throws MPException;
+    void z_tdiv_qr(Z q, Z r, Z n, Z d) throws MPException;
+    void z_tdiv_r(Z r, Z n, Z d) throws MPException;
+    void z_mul_2exp(Z r, Z a, long n) throws MPException;
+    void z_tdiv_q_2exp(Z r, Z a, long n) throws MPException;
+    void z_set_f(Z r, F a) throws MPException;     /* truncates */
+    String z_get_str(int base, Z a) throws MPException;
+
+    /* drop the storage of r, leaving it 0 */
+    void z_release(Z r) throws MPException;
+
+    /* write/read a in the mpz_out_raw format: 4-byte signed big-endian
+       byte count, then the magnitude big-endian */
+    void z_save(Z a, File f) throws MPException;
+    void z_load(Z r, File f) throws MPException;
+
+    /* floats; prec is in bits */
+    F    f_new(long prec) throws MPException;
+    long f_get_prec(F r) throws MPException;
+    void f_set_prec_raw(F r, long prec) throws MPException;
+    void f_set_d(F r, double d) throws MPException;
+    void f_set_z(F r, Z a) throws MPException;
+    void f_mul(F r, F a, F b) throws MPException;
+    void f_mul_ui(F r, F a, long v) throws MPException;
+    void f_div(F r, F a, F b) throws MPException;
+    void f_add(F r, F a, F b) throws MPException;
+    void f_ui_sub(F r, long u, F a) throws MPException;
+    void f_div_2exp(F r, F a, long n) throws MPException;
+    void f_abs(F r, F a) throws MPException;
+
+    /* drop the storage of r, leaving it 0 at the smallest precision */
+    void f_release(F r) throws MPException;
+
+    /* n significant digits of a in base, with a = 0.digits * base^exp[0] */
+    String f_get_str(int[] exp, int base, long n, F a) throws MPException;
+}
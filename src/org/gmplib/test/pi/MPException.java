@@ -0,0 +1,16 @@
+package org.gmplib.test.pi;
+
+public class MPException extends Exception
+{
+    private static final long serialVersionUID = 1L;
+
+    public MPException(String msg)
+    {
+	super(msg);
+    }
+
+    public MPException(Throwable cause)
+    {
+	super(cause.getMessage(), cause);
+    }
+}
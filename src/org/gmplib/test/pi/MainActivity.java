@@ -34,24 +34,22 @@ import java.io.InputStreamReader;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.OutputStreamWriter;
 import java.util.zip.ZipInputStream;
 
-import org.gmplib.gmpjni.GMP;
-import org.gmplib.gmpjni.GMP.mpf_t;
-import org.gmplib.gmpjni.GMP.GMPException;
-
 public class MainActivity extends Activity implements UI {
 
     private TextView mView;
     private TextView mDigits;
     private Button mButton;
     AsyncTask<Integer, Integer, Integer> task = null;
-    private mpf_t refPi;
-    private String refPiStr;
-    private long refPiDigits;
-    private static final double BITS_PER_DIGIT  =  3.32192809488736234787;
+    private ResultCache cache;
+    private static final long CACHE_BYTES = 64L<<20;
+    private final Object refPiLock = new Object();
+    private boolean refPiDone;
+    private File refPiFile;
+    private volatile long refPiDigits;
+    /* longer results go to a file rather than the text view */
+    private static final int DISPLAY_DIGITS = 100000;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -64,39 +62,45 @@ public class MainActivity extends Activity implements UI {
                 new View.OnClickListener() {
                     public void onClick(View v)
                     {
-                	try {
-                	    MainActivity.this.mView.setText("");
-                	    int d = 0;
-                            StringBuffer sb = new StringBuffer();
-                            sb.append(MainActivity.this.mDigits.getText());
-                            try {
-                	        d = Integer.parseInt(sb.toString());
-                            }
-                            catch (NumberFormatException e) {
-                            }
-                            task = new PI_Task(MainActivity.this);
-                            if (d == 0) {
-                                task.execute();
-                            } else {
-                        	if (d >= MainActivity.this.refPiDigits) {
-                    	            MainActivity.this.display(
-                    	                MainActivity.this.getResources().getString(R.string.warning1));
-                        	}
-                        	task.execute(Integer.valueOf(d));
-                            }
-                	}
-                	catch (GMPException e) {
-                	    Log.d("PI_Task", "MainActivity.onClick: " + e.getMessage());
+                	MainActivity.this.mView.setText("");
+                	/* a new request supersedes a running one */
+                	if (task != null) {
+                	    task.cancel(true);
                 	}
+                	int d = 0;
+                        StringBuffer sb = new StringBuffer();
+                        sb.append(MainActivity.this.mDigits.getText());
+                        try {
+                	    d = Integer.parseInt(sb.toString());
+                        }
+                        catch (NumberFormatException e) {
+                        }
+                        PI_Task<?, ?> pt = PI_Task.create(MainActivity.this, Backends.select(d));
+                        Chudnovsky<?, ?> engine = pt.engine();
+                        engine.setSpill(getCacheDir(), Runtime.getRuntime().maxMemory()/2);
+                        engine.setCheckpoint(new File(getFilesDir(), "checkpoint"));
+                        engine.setResultCache(resultCache());
+                        engine.setTuningProfile(tuningProfile());
+                        engine.setMetricsFile(new File(getFilesDir(), "metrics.json"));
+                        engine.setModCheck(true);
+                        if (d > DISPLAY_DIGITS) {
+                            engine.setOutputFile(new File(getFilesDir(), "pi_" + d + ".txt"), 10, 5);
+                        }
+                        task = pt;
+                        if (d == 0) {
+                            task.execute();
+                        } else {
+                            if (MainActivity.this.refPiDigits > 0 && d >= MainActivity.this.refPiDigits) {
+                    	        MainActivity.this.display(
+                    	            MainActivity.this.getResources().getString(R.string.warning1));
+                    	        /* past the reference, the last hex digits are still checked */
+                    	        engine.setHexCheck(true);
+                            }
+                            task.execute(Integer.valueOf(d));
+                        }
                     }
                 });
-        try {
-	    GMP.init();
-            initPi();
-        }
-        catch (Exception e) {            
-	    Log.d("PI_Task", "MainActivity.onCreate: " + e.getMessage());
-        }
+        initPi();
     }
 
     public void display(String line)
@@ -105,69 +109,91 @@ public class MainActivity extends Activity implements UI {
         mView.append("\n");
     }
     
-    public Object getRef()
+    private synchronized ResultCache resultCache()
+    {
+	if (cache == null) {
+	    cache = new ResultCache(new File(getFilesDir(), "results"), CACHE_BYTES);
+	}
+	return cache;
+    }
+
+    private File tuningProfile()
     {
-	return refPi;
+	return new File(getFilesDir(), "tuning.properties");
     }
-    
-    private void initPi()
-        throws Exception
+
+    /* waits for initPi to finish packing the reference */
+    public File getReference()
     {
-	long count = 0;
-	String line;
-
-	refPi = new mpf_t();
-
-	File f = this.getFileStreamPath("50.txt");
-	if (!f.exists()) {
-	    Log.d("PI_Task", "initPi: creating 50.txt from g50.zip");
-	    byte[] buffer = new byte[4096];
-	    ZipInputStream is = new ZipInputStream(this.getResources().openRawResource(R.raw.g50));
-	    FileOutputStream fo = this.openFileOutput("50.txt", MODE_PRIVATE);
-	    int n;
-            if (is.getNextEntry() == null) {
-        	throw new Exception("initPi: no entries in g50.zip");
-            }
-	    while (true) {
-		n = is.read(buffer);
-		if (n <= 0) break;
-		fo.write(buffer, 0, n);
+	synchronized (refPiLock) {
+	    while (!refPiDone) {
+		try {
+		    refPiLock.wait();
+		}
+		catch (InterruptedException e) {
+		    Thread.currentThread().interrupt();
+		    return null;
+		}
 	    }
-	    fo.close();
-	    is.close();
-	    Log.d("PI_Task", "initPi: created 50.txt");
+	    return refPiFile;
 	}
-	f = this.getFileStreamPath("50_pi.txt");
-	if (!f.exists()) {	    
-	    Log.d("PI_Task", "initPi: creating 50_pi.txt from 50.txt");
-	    count = 0;
-            BufferedReader br = new BufferedReader(new InputStreamReader(this.openFileInput("50.txt")));
-	    OutputStreamWriter os = new OutputStreamWriter(this.openFileOutput("50_pi.txt", MODE_PRIVATE));
-	    boolean reading = false;
-	    for (;;) {
-		line = br.readLine();
-		if (line == null) break;
-		if (line.startsWith("3.")) {
-		    reading = true;
-		} else if (reading && line.startsWith("End of Project Gutenberg's Pi")) {
-		    reading = false;
-		}
-		if (reading) {
-		    if (!line.isEmpty()) {
-			line = line.replace(" ", "");
-			os.write(line);
-			count += line.length();
+    }
+    
+    /*
+     * Pack the reference digits from g50.zip into 50_pi.bin the first time,
+     * in the background; afterwards only its header is read.
+     */
+    private void initPi()
+    {
+	final File f = this.getFileStreamPath("50_pi.bin");
+	new Thread(new Runnable() {
+	    public void run()
+	    {
+		File ref = null;
+		long n = -1;
+		try {
+		    if (f.exists()) {
+			n = PackedDigits.decimals(f);
 		    }
+		    if (n < 0) {
+			n = packReference(f);
+		    }
+		    ref = f;
+		}
+		catch (Exception e) {
+		    Log.d("PI_Task", "MainActivity.initPi: " + e.getMessage());
 		}
+		synchronized (refPiLock) {
+		    refPiFile = ref;
+		    refPiDigits = n;
+		    refPiDone = true;
+		    refPiLock.notifyAll();
+		}
+	    }
+	}, "initPi").start();
+    }
+
+    private long packReference(File f)
+        throws IOException
+    {
+	long n;
+	Log.d("PI_Task", "initPi: creating 50_pi.bin from g50.zip");
+	ZipInputStream is = new ZipInputStream(this.getResources().openRawResource(R.raw.g50));
+	try {
+	    if (is.getNextEntry() == null) {
+		throw new IOException("initPi: no entries in g50.zip");
 	    }
-	    Log.d("PI_Task", "initPi: created 50_pi.txt of length " + count);
-	    os.close();
-	    br.close();
+	    n = PackedDigits.pack(new BufferedReader(new InputStreamReader(is)),
+		"3.", "End of Project Gutenberg's Pi", f);
 	}
-	GMP.mpf_set_prec(refPi, (long)((double)f.length()*BITS_PER_DIGIT+16));
-	count = GMP.mpf_inp_str(refPi, f.getPath(), 10);
-	refPiDigits = count;
-	Log.d("PI_Task", "initPi: created reference pi value (" + count + " digits)");
+	finally {
+	    is.close();
+	}
+	/* left behind by earlier versions */
+	this.deleteFile("50.txt");
+	this.deleteFile("50_pi.txt");
+	Log.d("PI_Task", "initPi: created 50_pi.bin with " + n + " decimals");
+	return n;
     }
     
     @Override
@@ -186,6 +212,83 @@ public class MainActivity extends Activity implements UI {
 	if (id == R.id.action_settings) {
 	    return true;
 	}
+	if (id == R.id.action_benchmark) {
+	    runBenchmark();
+	    return true;
+	}
+	if (id == R.id.action_autotune) {
+	    runAutotune();
+	    return true;
+	}
 	return super.onOptionsItemSelected(item);
     }
+
+    private static final int[] BENCH_DIGITS = { 1000, 10000, 100000 };
+
+    private void runBenchmark()
+    {
+	mView.setText("");
+	new AsyncTask<Void, String, Void>() {
+	    protected Void doInBackground(Void... params)
+	    {
+		MP<?, ?> mp = Backends.gmp();
+		PI_Bench<?, ?> bench = PI_Bench.create(mp != null ? mp : Backends.java());
+		try {
+		    for (String name : PI_Bench.CASES) {
+			for (int d : BENCH_DIGITS) {
+			    publishProgress(bench.run(d, name));
+			}
+		    }
+		}
+		catch (MPException e) {
+		    publishProgress("benchmark failed: " + e.getMessage());
+		}
+		return null;
+	    }
+
+	    protected void onProgressUpdate(String... lines)
+	    {
+		Log.d("PI_Bench", lines[0]);
+		display(lines[0]);
+	    }
+	}.execute();
+    }
+
+    private void runAutotune()
+    {
+	mView.setText("");
+	new AsyncTask<Void, String, Void>() {
+	    protected Void doInBackground(Void... params)
+	    {
+		MP<?, ?> mp = Backends.gmp();
+		try {
+		    autotune(mp != null ? mp : Backends.java()).run(tuningProfile());
+		    publishProgress("saved " + tuningProfile().getName());
+		}
+		catch (MPException e) {
+		    publishProgress("autotune failed: " + e.getMessage());
+		}
+		catch (IOException e) {
+		    publishProgress("autotune failed: " + e.getMessage());
+		}
+		return null;
+	    }
+
+	    private <Z, F> Autotune<Z, F> autotune(MP<Z, F> mp)
+	    {
+		return new Autotune<Z, F>(mp) {
+		    protected void report(String line)
+		    {
+			publishProgress(line);
+		    }
+		};
+	    }
+
+	    protected void onProgressUpdate(String... lines)
+	    {
+		Log.d("Autotune", lines[0]);
+		display(lines[0]);
+	    }
+	}.execute();
+    }
 }
@@ -0,0 +1,216 @@
+package org.gmplib.test.pi;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Measurements of one Chudnovsky run: nanoseconds per phase, operation
+ * counts with operand bits and nanoseconds per bs tree level, and gauges
+ * of memory use with the peak seen by sample().  Everything may be updated
+ * from the pool threads; toJSON() gives a snapshot.
+ */
+public class Metrics
+{
+    public static final int SIEVE = 0;
+    public static final int BS = 1;
+    public static final int INIT = 2;
+    public static final int DIV = 3;
+    public static final int SQRT = 4;
+    public static final int MUL = 5;
+    public static final int CONVERT = 6;
+    public static final String[] PHASES = {
+	"sieve", "bs", "init", "div", "sqrt", "mul", "convert"
+    };
+
+    /* operations counted per level */
+    public static final int OP_MUL = 0;          /* z_mul of a merge */
+    public static final int OP_GCD = 1;          /* fac_remove_gcd */
+    public static final String[] OPS = { "mul", "gcd" };
+
+    /* deeper levels are counted with the last one */
+    public static final int LEVELS = 64;
+
+    /** A value read when the gauges are sampled. */
+    public interface Gauge
+    {
+	long value();
+    }
+
+    private final AtomicLongArray phase_ns = new AtomicLongArray(PHASES.length);
+    private final AtomicLongArray op_count = new AtomicLongArray(OPS.length*LEVELS);
+    private final AtomicLongArray op_bits = new AtomicLongArray(OPS.length*LEVELS);
+    private final AtomicLongArray op_ns = new AtomicLongArray(OPS.length*LEVELS);
+    private final Map<String, Gauge> gauges = new LinkedHashMap<String, Gauge>();
+    private final Map<String, AtomicLong> peaks = new LinkedHashMap<String, AtomicLong>();
+
+    public Metrics()
+    {
+	final Runtime rt = Runtime.getRuntime();
+	gauge("heap_used", new Gauge() {
+	    public long value()
+	    {
+		return rt.totalMemory() - rt.freeMemory();
+	    }
+	});
+	gauge("heap_max", new Gauge() {
+	    public long value()
+	    {
+		return rt.maxMemory();
+	    }
+	});
+    }
+
+    /* start over for the next run, keeping the gauges */
+    public synchronized void reset()
+    {
+	int i;
+	for (i = 0; i < PHASES.length; i++) {
+	    phase_ns.set(i, 0);
+	}
+	for (i = 0; i < OPS.length*LEVELS; i++) {
+	    op_count.set(i, 0);
+	    op_bits.set(i, 0);
+	    op_ns.set(i, 0);
+	}
+	for (Map.Entry<String, Gauge> e : gauges.entrySet()) {
+	    peaks.get(e.getKey()).set(e.getValue().value());
+	}
+    }
+
+    public static long ms(long ns)
+    {
+	return ns/1000000;
+    }
+
+    /* add the time since start to phase, returns the current time */
+    public long phase(int phase, long start)
+    {
+	long now = System.nanoTime();
+	phase_ns.addAndGet(phase, now - start);
+	return now;
+    }
+
+    public long phaseNanos(int phase)
+    {
+	return phase_ns.get(phase);
+    }
+
+    /* one op at level on operands of bits bits in total, taking ns */
+    public void op(int op, int level, long bits, long ns)
+    {
+	int i = op*LEVELS + Math.min(level, LEVELS-1);
+	op_count.incrementAndGet(i);
+	op_bits.addAndGet(i, bits);
+	op_ns.addAndGet(i, ns);
+    }
+
+    public long opCount(int op, int level)
+    {
+	return op_count.get(op*LEVELS + level);
+    }
+
+    public long opBits(int op, int level)
+    {
+	return op_bits.get(op*LEVELS + level);
+    }
+
+    public long opNanos(int op, int level)
+    {
+	return op_ns.get(op*LEVELS + level);
+    }
+
+    public synchronized void gauge(String name, Gauge g)
+    {
+	gauges.put(name, g);
+	if (!peaks.containsKey(name)) {
+	    peaks.put(name, new AtomicLong(g.value()));
+	}
+    }
+
+    public synchronized long gauge(String name)
+    {
+	Gauge g = gauges.get(name);
+	return (g != null ? g.value() : -1);
+    }
+
+    public synchronized long peak(String name)
+    {
+	AtomicLong p = peaks.get(name);
+	return (p != null ? p.get() : -1);
+    }
+
+    /* read every gauge and raise its peak */
+    public synchronized void sample()
+    {
+	for (Map.Entry<String, Gauge> e : gauges.entrySet()) {
+	    long v = e.getValue().value();
+	    AtomicLong p = peaks.get(e.getKey());
+	    if (v > p.get()) {
+		p.set(v);
+	    }
+	}
+    }
+
+    /* the gauges as name=value (peak), for the log */
+    public synchronized String gauges()
+    {
+	StringBuffer sb = new StringBuffer();
+	for (Map.Entry<String, Gauge> e : gauges.entrySet()) {
+	    if (sb.length() > 0) {
+		sb.append(", ");
+	    }
+	    sb.append(e.getKey()).append('=').append(e.getValue().value());
+	    sb.append(" (").append(peaks.get(e.getKey()).get()).append(')');
+	}
+	return sb.toString();
+    }
+
+    public synchronized String toJSON()
+    {
+	StringBuffer sb = new StringBuffer();
+	int i, l, n;
+	sb.append("{\"phases_ns\":{");
+	for (i = 0; i < PHASES.length; i++) {
+	    if (i > 0) {
+		sb.append(',');
+	    }
+	    sb.append('"').append(PHASES[i]).append("\":").append(phase_ns.get(i));
+	}
+	sb.append("},\"ops\":{");
+	for (i = 0; i < OPS.length; i++) {
+	    if (i > 0) {
+		sb.append(',');
+	    }
+	    sb.append('"').append(OPS[i]).append("\":[");
+	    n = 0;
+	    for (l = 0; l < LEVELS; l++) {
+		if (opCount(i, l) == 0) {
+		    continue;
+		}
+		if (n++ > 0) {
+		    sb.append(',');
+		}
+		sb.append(String.format(Locale.US,
+		    "{\"level\":%d,\"count\":%d,\"bits\":%d,\"ns\":%d}",
+		    l, opCount(i, l), opBits(i, l), opNanos(i, l)));
+	    }
+	    sb.append(']');
+	}
+	sb.append("},\"gauges\":{");
+	Iterator<Map.Entry<String, Gauge>> it = gauges.entrySet().iterator();
+	while (it.hasNext()) {
+	    Map.Entry<String, Gauge> e = it.next();
+	    sb.append('"').append(e.getKey()).append("\":{\"value\":").append(e.getValue().value());
+	    sb.append(",\"peak\":").append(peaks.get(e.getKey()).get()).append('}');
+	    if (it.hasNext()) {
+		sb.append(',');
+	    }
+	}
+	sb.append("}}");
+	return sb.toString();
+    }
+}
@@ -0,0 +1,143 @@
+package org.gmplib.test.pi;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+
+/**
+ * P, Q and G of Chudnovsky's bs over all terms, modulo a few random 61-bit
+ * primes, in word arithmetic: each term is merged into the sum of those
+ * before it with the merge of bs, multiplying in Montgomery form so a
+ * product costs a few long multiplications and no division.  bs drops
+ * common factors of P and Q as it goes, so its root is the exact P and Q
+ * divided by some product of small primes; check() compares the two by
+ * P*Qm = Q*Pm mod m, which any error in bs or in the numbers it leaves
+ * breaks except by a chance of about terms in 2^60 per prime.
+ */
+public class ModCheck
+{
+    public static final int PRIMES = 3;
+    public static final int BITS = 61;
+
+    private final int terms;
+    private final long[] m = new long[PRIMES];
+    private final long[] m_inv = new long[PRIMES];     /* -1/m mod 2^64 */
+    private final long[] r2 = new long[PRIMES];        /* 2^128 mod m */
+    private final long[] p = new long[PRIMES];
+    private final long[] q = new long[PRIMES];
+
+    public ModCheck(int terms)
+    {
+	Random rnd = new Random();
+	int i, j;
+	long inv, r;
+
+	this.terms = terms;
+	for (i = 0; i < PRIMES; i++) {
+	    m[i] = BigInteger.probablePrime(BITS, rnd).longValue();
+	    inv = m[i];     /* right to 3 bits for odd m, Newton doubles them */
+	    for (j = 0; j < 5; j++) {
+		inv *= 2 - m[i]*inv;
+	    }
+	    m_inv[i] = -inv;
+	    r = 1;
+	    for (j = 0; j < 128; j++) {
+		r = add(r, r, m[i]);
+	    }
+	    r2[i] = r;
+	}
+    }
+
+    public long prime(int i)
+    {
+	return m[i];
+    }
+
+    private static long add(long a, long b, long m)
+    {
+	long s = a + b;
+	return (s >= m ? s - m : s);
+    }
+
+    /* the high 64 bits of the unsigned product a*b */
+    private static long mulhi(long a, long b)
+    {
+	long a0 = a & 0xffffffffL;
+	long a1 = a >>> 32;
+	long b0 = b & 0xffffffffL;
+	long b1 = b >>> 32;
+	long p01 = a0*b1;
+	long p10 = a1*b0;
+	long mid = ((a0*b0) >>> 32) + (p01 & 0xffffffffL) + (p10 & 0xffffffffL);
+	return a1*b1 + (p01 >>> 32) + (p10 >>> 32) + (mid >>> 32);
+    }
+
+    /* a*b/2^64 mod m[i], for a, b < m[i] */
+    private long mul(int i, long a, long b)
+    {
+	long lo = a*b;
+	long hi = mulhi(a, b);
+	long u = lo*m_inv[i];
+	/* lo + lo(u*m) is 0 mod 2^64, carrying unless lo is 0 */
+	long r = hi + mulhi(u, m[i]) + (lo != 0 ? 1 : 0);
+	return (r >= m[i] ? r - m[i] : r);
+    }
+
+    /* x < 2^63 into Montgomery form */
+    private long to_mont(int i, long x)
+    {
+	return mul(i, x % m[i], r2[i]);
+    }
+
+    private long from_mont(int i, long x)
+    {
+	return mul(i, x, 1);
+    }
+
+    /*
+     * The sums over all terms, with the terms of bs:
+     * p(k) = k^3 C^3/24, g(k) = (2k-1)(6k-1)(6k-5), q(k) = (-1)^k g(k)(A+Bk),
+     * and [0,k) merged with [k-1,k) as P = P*p, Q = Q*p + q*G, G = G*g.
+     */
+    public void sum()
+    {
+	long c3 = Chudnovsky.C*Chudnovsky.C*Chudnovsky.C/24;
+	int i;
+	long k;
+
+	for (i = 0; i < PRIMES; i++) {
+	    long c = to_mont(i, c3);
+	    long pp = to_mont(i, 1);
+	    long qq = 0;
+	    long gg = pp;
+	    long pk, gk, qk;
+
+	    for (k = 1; k <= terms; k++) {
+		if ((k & 0xffff) == 0 && Thread.interrupted()) {
+		    throw new CancellationException("interrupted");
+		}
+		pk = to_mont(i, k*k);
+		pk = mul(i, pk, to_mont(i, k));
+		pk = mul(i, pk, c);
+		gk = mul(i, to_mont(i, (2*k-1)*(6*k-1)), to_mont(i, 6*k-5));
+		qk = mul(i, gk, to_mont(i, Chudnovsky.A + Chudnovsky.B*k));
+		if (k%2 != 0 && qk != 0) {
+		    qk = m[i] - qk;
+		}
+		qq = add(mul(i, qq, pk), mul(i, qk, gg), m[i]);
+		pp = mul(i, pp, pk);
+		gg = mul(i, gg, gk);
+	    }
+	    p[i] = from_mont(i, pp);
+	    q[i] = from_mont(i, qq);
+	}
+    }
+
+    /* whether pr/qr, the root of bs reduced mod prime(i) into [0,m), agree with the sums */
+    public boolean check(int i, long pr, long qr)
+    {
+	long a = mul(i, to_mont(i, pr), to_mont(i, q[i]));
+	long b = mul(i, to_mont(i, qr), to_mont(i, p[i]));
+	return a == b && pr != 0;
+    }
+}
@@ -0,0 +1,262 @@
+package org.gmplib.test.pi;
+
+import java.util.Locale;
+
+/**
+ * Microbenchmarks for the hot paths of Chudnovsky: sieve construction, leaf
+ * evaluation in bs, fac_mul2, fac_remove_gcd, bs_mul, my_sqrt_ui and the
+ * final decimal conversion.  Each case is sized by a digit count, run
+ * warmup times, then timed over iterations runs with System.nanoTime;
+ * building the operands of a case is not part of the timing.
+ *
+ * From a shell: PI_Bench [java|gmp] [digits,...] [case,...]
+ */
+public class PI_Bench<Z, F>
+{
+    public static final int[] DIGITS = { 1000, 10000, 100000, 1000000, 10000000 };
+    public static final String[] CASES = {
+	"sieve", "leaf", "fac_mul2", "fac_remove_gcd", "bs_mul", "sqrt", "convert"
+    };
+
+    public int warmup = 2;
+    public int iterations = 5;
+
+    private final MP<Z, F> mp;
+    private Chudnovsky<Z, F> task;
+    private int digits;
+    private int terms;
+
+    public PI_Bench(MP<Z, F> mp)
+    {
+	this.mp = mp;
+    }
+
+    public static <Z, F> PI_Bench<Z, F> create(MP<Z, F> mp)
+    {
+	return new PI_Bench<Z, F>(mp);
+    }
+
+    private abstract class bench_case
+    {
+	/* untimed, before every run */
+	void prepare() throws MPException {}
+	abstract void run() throws MPException;
+    }
+
+    /* time case name at d digits, returns one report line */
+    public String run(int d, String name)
+        throws MPException
+    {
+	bench_case c;
+	double[] t = new double[iterations];
+	double mean = 0, var = 0;
+	int i;
+
+	task = Chudnovsky.create(mp);
+	digits = d;
+	terms = task.init_terms(d);
+	c = make(name);
+	for (i = 0; i < warmup; i++) {
+	    c.prepare();
+	    c.run();
+	}
+	for (i = 0; i < iterations; i++) {
+	    c.prepare();
+	    long t0 = System.nanoTime();
+	    c.run();
+	    t[i] = (double)(System.nanoTime() - t0)/1e6;
+	    mean += t[i];
+	}
+	mean /= iterations;
+	for (i = 0; i < iterations; i++) {
+	    var += (t[i] - mean)*(t[i] - mean);
+	}
+	if (iterations > 1) {
+	    var /= iterations - 1;
+	}
+	task = null;
+	return String.format(Locale.US, "%-16s %-6s d=%-9d %12.3f ms/op +- %.3f (%d runs)",
+	    name, mp.name(), d, mean, Math.sqrt(var), iterations);
+    }
+
+    private bench_case make(String name)
+        throws MPException
+    {
+	if (name.equals("sieve")) {
+	    return new bench_case() {
+		void run()
+		    throws MPException
+		{
+		    task.init_sieve(terms);
+		}
+	    };
+	}
+	if (name.equals("leaf")) {
+	    task.init_sieve(terms);
+	    final Chudnovsky<Z, F>.bs_ctx ctx = task.new bs_ctx(task.depth);
+	    return new bench_case() {
+		void run()
+		    throws MPException
+		{
+		    int b;
+		    for (b = 1; b <= terms; b++) {
+			ctx.top = 0;
+			task.bs(ctx, b-1, b, true, task.depth);
+		    }
+		}
+	    };
+	}
+	if (name.equals("fac_mul2")) {
+	    task.init_sieve(terms);
+	    Chudnovsky<Z, F>.bs_ctx ctx = task.new bs_ctx(task.depth);
+	    final Chudnovsky.fac_t f = fac_range(ctx, 0, terms/2, true);
+	    final Chudnovsky.fac_t g = fac_range(ctx, terms/2, terms, true);
+	    final Chudnovsky.fac_t r = new Chudnovsky.fac_t();
+	    Chudnovsky.fac_init_size(r, f.num_facs + g.num_facs);
+	    return new bench_case() {
+		void run()
+		{
+		    Chudnovsky.fac_mul2(r, f, g);
+		}
+	    };
+	}
+	if (name.equals("fac_remove_gcd")) {
+	    /* the merge at the root: p(mid,terms) against g(0,mid) */
+	    final int mid = (int)((double)terms*task.tune.split_ratio);
+	    task.init_sieve(terms);
+	    final Chudnovsky<Z, F>.bs_ctx ctx = task.new bs_ctx(task.depth);
+	    task.bs(ctx, 0, mid, true, 1);
+	    ctx.top = 1;
+	    task.bs(ctx, mid, terms, true, 1);
+	    ctx.top = 0;
+	    final Z p = mp.z_new();
+	    final Z g = mp.z_new();
+	    final Chudnovsky.fac_t fp = new Chudnovsky.fac_t();
+	    final Chudnovsky.fac_t fg = new Chudnovsky.fac_t();
+	    return new bench_case() {
+		void prepare()
+		    throws MPException
+		{
+		    mp.z_set(p, ctx.pstack[1]);
+		    mp.z_set(g, ctx.gstack[0]);
+		    Chudnovsky.fac_copy(fp, ctx.fpstack[1]);
+		    Chudnovsky.fac_copy(fg, ctx.fgstack[0]);
+		}
+		void run()
+		    throws MPException
+		{
+		    task.fac_remove_gcd(ctx, p, fp, g, fg);
+		}
+	    };
+	}
+	if (name.equals("bs_mul")) {
+	    /* p(0,terms) from its factorization */
+	    task.init_sieve(terms);
+	    final Chudnovsky<Z, F>.bs_ctx ctx = task.new bs_ctx(task.depth);
+	    final Chudnovsky.fac_t f = fac_range(ctx, 0, terms, true);
+	    final Z r = mp.z_new();
+	    return new bench_case() {
+		void prepare()
+		{
+		    ctx.fmul = f;
+		}
+		void run()
+		    throws MPException
+		{
+		    task.bs_mul(ctx, r, 0, f.num_facs);
+		}
+	    };
+	}
+	final long prec = (long)((double)digits*Chudnovsky.BITS_PER_DIGIT+16);
+	task.t1 = mp.f_new(prec);
+	task.t2 = mp.f_new(prec);
+	final F x = mp.f_new(prec);
+	if (name.equals("sqrt")) {
+	    return new bench_case() {
+		void run()
+		    throws MPException
+		{
+		    task.my_sqrt_ui(x, Chudnovsky.C);
+		}
+	    };
+	}
+	if (name.equals("convert")) {
+	    final int[] exp = new int[1];
+	    task.my_sqrt_ui(x, Chudnovsky.C);
+	    return new bench_case() {
+		void run()
+		    throws MPException
+		{
+		    mp.f_get_str(exp, 10, digits+2, x);
+		}
+	    };
+	}
+	throw new IllegalArgumentException("unknown benchmark " + name);
+    }
+
+    /* factorization of p(a,b) (pflag) or g(a,b), without the big numbers */
+    private Chudnovsky.fac_t fac_range(Chudnovsky<Z, F>.bs_ctx ctx, int a, int b, boolean pflag)
+        throws MPException
+    {
+	Chudnovsky.fac_t r = new Chudnovsky.fac_t();
+	if (b-a == 1) {
+	    Chudnovsky.fac_init(r);
+	    if (pflag) {
+		int i = b;
+		while ((i&1) == 0) i >>= 1;
+		task.fac_set_bp(r, i, 3);
+		task.fac_mul_bp(ctx, r, 3*5*23*29, 3);
+		r.pow[0]--;
+	    } else {
+		task.fac_set_bp(r, 2*b-1, 1);
+		task.fac_mul_bp(ctx, r, 6*b-1, 1);
+		task.fac_mul_bp(ctx, r, 6*b-5, 1);
+	    }
+	} else {
+	    int mid = (a+b)/2;
+	    Chudnovsky.fac_t f = fac_range(ctx, a, mid, pflag);
+	    Chudnovsky.fac_t g = fac_range(ctx, mid, b, pflag);
+	    Chudnovsky.fac_init_size(r, f.num_facs + g.num_facs);
+	    Chudnovsky.fac_mul2(r, f, g);
+	}
+	return r;
+    }
+
+    private static int[] parse_ints(String s)
+    {
+	String[] v = s.split(",");
+	int[] r = new int[v.length];
+	for (int i = 0; i < v.length; i++) {
+	    r[i] = Integer.parseInt(v[i].trim());
+	}
+	return r;
+    }
+
+    public static void main(String[] args)
+        throws MPException
+    {
+	MP<?, ?> mp = Backends.java();
+	int[] digits = DIGITS;
+	String[] cases = CASES;
+
+	if (args.length > 0 && args[0].equals("gmp")) {
+	    mp = Backends.gmp();
+	    if (mp == null) {
+		System.err.println("PI_Bench: GMP bridge not available");
+		System.exit(1);
+	    }
+	}
+	if (args.length > 1) {
+	    digits = parse_ints(args[1]);
+	}
+	if (args.length > 2) {
+	    cases = args[2].split(",");
+	}
+	PI_Bench<?, ?> bench = create(mp);
+	for (String name : cases) {
+	    for (int d : digits) {
+		System.out.println(bench.run(d, name));
+	    }
+	}
+    }
+}
@@ -0,0 +1,376 @@
+package org.gmplib.test.pi;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Runs Chudnovsky from a shell, one job per digit count.  The jobs of a
+ * batch run back to back on one engine per backend, so the JIT stays warm
+ * and the sieve is built once, for the largest job, and kept.  Log lines go
+ * to stderr, the result text of each job to stdout unless its digits go to
+ * a file, and a summary line per job to stderr at the end.  The exit status
+ * is 0 when every job succeeded and matched its reference, 1 otherwise.
+ */
+public class PI_Cli
+{
+    private static final String USAGE =
+	"usage: PI_Cli [options] digits...\n" +
+	"  -b java|gmp|auto  backend, auto as Backends.select (default)\n" +
+	"  -k NAME           constant: pi (default), or a Series: e, ln2, zeta3,\n" +
+	"                    catalan, and pi by ramanujan or chudnovsky\n" +
+	"  -R                cut the top merges of a Series to the precision\n" +
+	"  -o FILE           write the digits to FILE, %d is the digit count\n" +
+	"  -g N, -l N        digits per group and groups per line of FILE (10, 5)\n" +
+	"  -v FILE           verify against reference digits, text or packed\n" +
+	"  -X                check the last hex digits of pi against BBP\n" +
+	"  -Z                check P and Q of bs modulo random primes\n" +
+	"  -H POS            only print the hex digits of pi after the first POS, by BBP\n" +
+	"  -x N              out flags: 1 logs the numbers, 2 debug output\n" +
+	"  -p N              par_level (default: by processor count)\n" +
+	"  -t FILE           tuning profile, as written by Autotune\n" +
+	"  -c DIR            checkpoint directory\n" +
+	"  -r DIR            result cache directory\n" +
+	"  -s DIR            spill directory, spilling past half the heap\n" +
+	"  -m FILE           metrics JSON, %d is the digit count\n" +
+	"  -T MS, -M BYTES   time and memory budget per job\n" +
+	"  -D                downgrade over the memory budget rather than refuse\n" +
+	"  -f FILE           batch file: lines of \"digits [output]\", # comments\n" +
+	"  -q                no log lines\n" +
+	"  -P                progress lines\n";
+
+    private static final long CACHE_BYTES = 1L<<30;
+
+    static class Job
+    {
+	int digits;
+	String output;          /* null: as -o */
+	String status;
+	long millis;
+    }
+
+    private String backend = "auto";
+    private Series series;      /* null: pi */
+    private String output;
+    private int group = 10;
+    private int line = 5;
+    private File reference;
+    private int out;
+    private int par_level = -1;
+    private File tuning;
+    private File checkpoint;
+    private File cache_dir;
+    private File spill;
+    private String metrics;
+    private long time_budget;
+    private long mem_budget;
+    private boolean downgrade;
+    private boolean quiet;
+    private boolean progress;
+    private boolean hex_check;
+    private boolean mod_check;
+    private boolean truncate;
+    private long hex_pos = -1;
+    private final List<Job> jobs = new ArrayList<Job>();
+    private final Map<String, Chudnovsky<?, ?>> engines = new HashMap<String, Chudnovsky<?, ?>>();
+    private ResultCache cache;
+
+    private static void usage(String msg)
+    {
+	if (msg != null) {
+	    System.err.println("PI_Cli: " + msg);
+	}
+	System.err.print(USAGE);
+	System.exit(2);
+    }
+
+    private static String arg(String[] args, int i)
+    {
+	if (i >= args.length) {
+	    usage(args[i-1] + " needs an argument");
+	}
+	return args[i];
+    }
+
+    private static long number(String s)
+    {
+	try {
+	    return Long.parseLong(s);
+	}
+	catch (NumberFormatException e) {
+	    usage("not a number: " + s);
+	    return 0;
+	}
+    }
+
+    private void job(String digits, String output)
+    {
+	Job j = new Job();
+	j.digits = (int)number(digits);
+	j.output = output;
+	jobs.add(j);
+    }
+
+    private void batch(File f)
+        throws IOException
+    {
+	BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(f), "UTF-8"));
+	try {
+	    String s;
+	    while ((s = r.readLine()) != null) {
+		s = s.trim();
+		if (s.length() == 0 || s.startsWith("#")) {
+		    continue;
+		}
+		String[] v = s.split("\\s+", 2);
+		job(v[0], (v.length > 1 ? v[1] : null));
+	    }
+	}
+	finally {
+	    r.close();
+	}
+    }
+
+    void parse(String[] args)
+        throws IOException
+    {
+	int i;
+	for (i = 0; i < args.length; i++) {
+	    String a = args[i];
+	    if (a.equals("-b")) {
+		backend = arg(args, ++i);
+	    } else if (a.equals("-k")) {
+		String k = arg(args, ++i);
+		series = (k.equals("pi") ? null : Series.get(k));
+		if (series == null && !k.equals("pi")) {
+		    usage("unknown constant " + k);
+		}
+	    } else if (a.equals("-o")) {
+		output = arg(args, ++i);
+	    } else if (a.equals("-g")) {
+		group = (int)number(arg(args, ++i));
+	    } else if (a.equals("-l")) {
+		line = (int)number(arg(args, ++i));
+	    } else if (a.equals("-v")) {
+		reference = new File(arg(args, ++i));
+	    } else if (a.equals("-x")) {
+		out = (int)number(arg(args, ++i));
+	    } else if (a.equals("-p")) {
+		par_level = (int)number(arg(args, ++i));
+	    } else if (a.equals("-t")) {
+		tuning = new File(arg(args, ++i));
+	    } else if (a.equals("-c")) {
+		checkpoint = new File(arg(args, ++i));
+	    } else if (a.equals("-r")) {
+		cache_dir = new File(arg(args, ++i));
+	    } else if (a.equals("-s")) {
+		spill = new File(arg(args, ++i));
+	    } else if (a.equals("-m")) {
+		metrics = arg(args, ++i);
+	    } else if (a.equals("-T")) {
+		time_budget = number(arg(args, ++i));
+	    } else if (a.equals("-M")) {
+		mem_budget = number(arg(args, ++i));
+	    } else if (a.equals("-D")) {
+		downgrade = true;
+	    } else if (a.equals("-f")) {
+		batch(new File(arg(args, ++i)));
+	    } else if (a.equals("-X")) {
+		hex_check = true;
+	    } else if (a.equals("-R")) {
+		truncate = true;
+	    } else if (a.equals("-Z")) {
+		mod_check = true;
+	    } else if (a.equals("-H")) {
+		hex_pos = number(arg(args, ++i));
+	    } else if (a.equals("-q")) {
+		quiet = true;
+	    } else if (a.equals("-P")) {
+		progress = true;
+	    } else if (a.equals("-h") || a.equals("--help")) {
+		usage(null);
+	    } else if (a.startsWith("-")) {
+		usage("unknown option " + a);
+	    } else {
+		job(a, null);
+	    }
+	}
+	if (jobs.isEmpty() && hex_pos < 0) {
+	    usage("no digit count");
+	}
+	if (!backend.equals("java") && !backend.equals("gmp") && !backend.equals("auto")) {
+	    usage("unknown backend " + backend);
+	}
+    }
+
+    private MP<?, ?> backend(int d)
+    {
+	if (backend.equals("java")) {
+	    return Backends.java();
+	}
+	if (backend.equals("gmp")) {
+	    MP<?, ?> mp = Backends.gmp();
+	    if (mp == null) {
+		System.err.println("PI_Cli: GMP bridge not available");
+		System.exit(1);
+	    }
+	    return mp;
+	}
+	return Backends.select(d);
+    }
+
+    /* the engine of mp's backend, set up on first use */
+    private Chudnovsky<?, ?> engine(MP<?, ?> mp)
+    {
+	Chudnovsky<?, ?> e = engines.get(mp.name());
+	if (e != null) {
+	    return e;
+	}
+	e = Chudnovsky.create(mp);
+	e.setListener(new Chudnovsky.Listener() {
+	    private int last = -1;
+
+	    public void log(String line)
+	    {
+		if (!quiet) {
+		    System.err.println(line);
+		}
+	    }
+
+	    public void progress(int percent, long eta_millis)
+	    {
+		if (progress && percent != last) {
+		    last = percent;
+		    System.err.println("progress=" + percent +
+			(eta_millis >= 0 ? ", eta=" + eta_millis/1000 + "s" : ""));
+		}
+	    }
+
+	    public boolean isCancelled()
+	    {
+		return false;
+	    }
+	});
+	e.setOut(out);
+	e.setHexCheck(hex_check);
+	e.setModCheck(mod_check);
+	e.setReference(reference);
+	if (par_level >= 0) {
+	    e.setParLevel(par_level);
+	}
+	if (tuning != null) {
+	    e.setTuningProfile(tuning);
+	}
+	if (checkpoint != null) {
+	    e.setCheckpoint(checkpoint);
+	}
+	if (cache_dir != null) {
+	    if (cache == null) {
+		cache = new ResultCache(cache_dir, CACHE_BYTES);
+	    }
+	    e.setResultCache(cache);
+	}
+	if (spill != null) {
+	    e.setSpill(spill, Runtime.getRuntime().maxMemory()/2);
+	}
+	e.setBudget(time_budget, mem_budget, downgrade);
+	if (series != null) {
+	    e.setSeries(series);
+	    e.setTruncatedMerges(truncate);
+	} else {
+	    e.prepareSieve(max_digits(mp));
+	}
+	engines.put(mp.name(), e);
+	return e;
+    }
+
+    /* the largest job on mp's backend */
+    private int max_digits(MP<?, ?> mp)
+    {
+	int m = 0;
+	for (Job j : jobs) {
+	    if (backend(j.digits).name().equals(mp.name())) {
+		m = Math.max(m, j.digits);
+	    }
+	}
+	return m;
+    }
+
+    private static String subst(String pattern, int d)
+    {
+	return pattern.replace("%d", Integer.toString(d));
+    }
+
+    private boolean run(Job j)
+    {
+	Chudnovsky<?, ?> e = engine(backend(j.digits));
+	String o = (j.output != null ? j.output : output);
+	e.setOutputFile(o != null ? new File(subst(o, j.digits)) : null, group, line);
+	e.setMetricsFile(metrics != null ? new File(subst(metrics, j.digits)) : null);
+	long t0 = System.nanoTime();
+	boolean ok = false;
+	try {
+	    String result = e.run(j.digits);
+	    DigitVerifier v = e.getVerifier();
+	    ok = (v == null || !v.isMismatch()) && !e.isHexMismatch() && !e.isModMismatch();
+	    j.status = (v == null ? "ok" : v.isMismatch() ? "mismatch" : "verified");
+	    if (e.isHexMismatch()) {
+		j.status += ", hex mismatch";
+	    }
+	    if (e.isModMismatch()) {
+		j.status += ", mod mismatch";
+	    }
+	    System.out.println(result);
+	}
+	catch (MPException ex) {
+	    j.status = "failed: " + ex.getMessage();
+	}
+	catch (CancellationException ex) {
+	    j.status = "aborted: " + ex.getMessage();
+	}
+	j.millis = Metrics.ms(System.nanoTime() - t0);
+	return ok;
+    }
+
+    int run()
+    {
+	int failed = 0;
+	for (Job j : jobs) {
+	    if (!run(j)) {
+		failed++;
+	    }
+	}
+	for (Job j : jobs) {
+	    System.err.println(String.format(Locale.US, "%12d digits %10d ms  %s", j.digits, j.millis, j.status));
+	}
+	return (failed == 0 ? 0 : 1);
+    }
+
+    public static void main(String[] args)
+        throws IOException
+    {
+	PI_Cli cli = new PI_Cli();
+	cli.parse(args);
+	if (cli.hex_pos >= 0) {
+	    if (cli.hex_pos >= BBP.MAX_POSITION) {
+		usage("-H position must be below " + BBP.MAX_POSITION);
+	    }
+	    String hex = BBP.hex(cli.hex_pos);
+	    if (hex == null) {
+		System.err.println("PI_Cli: too near a carry for BBP at " + cli.hex_pos);
+		System.exit(1);
+	    }
+	    System.out.println(hex);
+	    System.exit(0);
+	}
+	System.exit(cli.run());
+    }
+}
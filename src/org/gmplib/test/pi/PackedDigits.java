@@ -0,0 +1,116 @@
+package org.gmplib.test.pi;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Compact reference digits: a 16-byte header (MAGIC, the number of digits
+ * in front of the point, the total number of digits) followed by the
+ * digits nine to a big-endian int, the last int padded with zeros.  A
+ * reader can find digit i at byte HEADER + 4*(i/9) without parsing
+ * anything before it.
+ */
+public class PackedDigits
+{
+    public static final int MAGIC = 0x50494439;    /* "PID9" */
+    public static final int HEADER = 16;
+    public static final int DIGITS_PER_WORD = 9;
+
+    /*
+     * Pack the digits of the text from the line starting with start up to
+     * the line starting with stop (or the end) into out; spaces and line
+     * breaks are dropped, the first '.' gives the point.  Returns the
+     * number of digits after the point.
+     */
+    public static long pack(BufferedReader in, String start, String stop, File out)
+        throws IOException
+    {
+	File tmp = new File(out.getPath() + ".tmp");
+	DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+	boolean reading = false;
+	int exp = -1;
+	long count = 0;
+	int word = 0;
+	int n = 0;
+	String line;
+	int i;
+
+	try {
+	    os.writeInt(MAGIC);
+	    os.writeInt(0);
+	    os.writeLong(0);
+	    while ((line = in.readLine()) != null) {
+		if (!reading) {
+		    reading = line.startsWith(start);
+		} else if (stop != null && line.startsWith(stop)) {
+		    break;
+		}
+		if (!reading) {
+		    continue;
+		}
+		for (i = 0; i < line.length(); i++) {
+		    char c = line.charAt(i);
+		    if (c >= '0' && c <= '9') {
+			word = word*10 + (c - '0');
+			count++;
+			if (++n == DIGITS_PER_WORD) {
+			    os.writeInt(word);
+			    word = 0;
+			    n = 0;
+			}
+		    } else if (c == '.' && exp < 0) {
+			exp = (int)count;
+		    }
+		}
+	    }
+	    if (n > 0) {
+		while (n++ < DIGITS_PER_WORD) {
+		    word *= 10;
+		}
+		os.writeInt(word);
+	    }
+	}
+	finally {
+	    os.close();
+	}
+	if (exp < 0) {
+	    exp = (int)count;
+	}
+
+	RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+	try {
+	    raf.seek(4);
+	    raf.writeInt(exp);
+	    raf.writeLong(count);
+	}
+	finally {
+	    raf.close();
+	}
+	if (!tmp.renameTo(out)) {
+	    throw new IOException("cannot rename " + tmp);
+	}
+	return count - exp;
+    }
+
+    /* digits after the point in a packed file, or -1 if it is not one */
+    public static long decimals(File f)
+        throws IOException
+    {
+	RandomAccessFile raf = new RandomAccessFile(f, "r");
+	try {
+	    if (raf.length() < HEADER || raf.readInt() != MAGIC) {
+		return -1;
+	    }
+	    int exp = raf.readInt();
+	    return raf.readLong() - exp;
+	}
+	finally {
+	    raf.close();
+	}
+    }
+}
@@ -0,0 +1,65 @@
+package org.gmplib.test.pi;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress of a run in units of estimated work rather than terms.  The
+ * work of a multiplication of n-bit numbers is taken as n^e, with e from
+ * Tuning.mul_exponent, so the merges near the root of bs weigh what they
+ * cost rather than nothing.  The ETA extrapolates the throughput measured
+ * since the run started.
+ */
+public class Progress
+{
+    private final long total;
+    private final AtomicLong done = new AtomicLong(0);
+    private final long start = System.nanoTime();
+
+    public Progress(long total)
+    {
+	this.total = Math.max(total, 1);
+    }
+
+    /* work of a multiplication of two bits-bit numbers */
+    public static long mul_cost(long bits, double e)
+    {
+	return (long)Math.pow((double)Math.max(bits, 2), e);
+    }
+
+    public long total()
+    {
+	return total;
+    }
+
+    public long done()
+    {
+	return done.get();
+    }
+
+    /* count work as done, returns the work done so far */
+    public long add(long work)
+    {
+	return done.addAndGet(work);
+    }
+
+    public int percent()
+    {
+	return percent(done.get());
+    }
+
+    public int percent(long d)
+    {
+	return (int)Math.min(100, d*100/total);
+    }
+
+    /* milliseconds left at the throughput so far, -1 before any work */
+    public long etaMillis()
+    {
+	long d = done.get();
+	if (d <= 0) {
+	    return -1;
+	}
+	double elapsed = (double)(System.nanoTime() - start)/1e6;
+	return (long)(elapsed*(double)Math.max(total - d, 0)/(double)d);
+    }
+}
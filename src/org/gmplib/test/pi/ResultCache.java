@@ -0,0 +1,132 @@
+package org.gmplib.test.pi;
+
+import java.io.File;
+
+/**
+ * Computed digits kept on disk as pi_<d>.txt in DigitFileWriter's plain
+ * format, one file per digit count.  A request for d digits is served from
+ * the smallest entry with at least d, read up to d.  When the entries grow
+ * past maxBytes the least recently used ones are deleted; a hit counts as
+ * a use through the file's modification time.
+ */
+public class ResultCache
+{
+    private static final String PREFIX = "pi_";
+    private static final String SUFFIX = ".txt";
+
+    private final File dir;
+    private final long maxBytes;
+
+    public ResultCache(File dir, long maxBytes)
+    {
+	this.dir = dir;
+	this.maxBytes = maxBytes;
+	dir.mkdirs();
+    }
+
+    private File entry(int d)
+    {
+	return new File(dir, PREFIX + d + SUFFIX);
+    }
+
+    private File tmp(int d)
+    {
+	return new File(dir, PREFIX + d + ".tmp");
+    }
+
+    /* digit count of an entry's file name, or -1 */
+    private static int digits(File f)
+    {
+	String name = f.getName();
+	if (!name.startsWith(PREFIX) || !name.endsWith(SUFFIX)) {
+	    return -1;
+	}
+	try {
+	    return Integer.parseInt(name.substring(PREFIX.length(), name.length()-SUFFIX.length()));
+	}
+	catch (NumberFormatException e) {
+	    return -1;
+	}
+    }
+
+    /* an entry with at least d digits, or null */
+    public synchronized File lookup(int d)
+    {
+	File[] files = dir.listFiles();
+	File best = null;
+	int bestd = 0;
+	int i, n;
+	if (files == null) {
+	    return null;
+	}
+	for (i = 0; i < files.length; i++) {
+	    n = digits(files[i]);
+	    if (n >= d && (best == null || n < bestd)) {
+		best = files[i];
+		bestd = n;
+	    }
+	}
+	if (best != null) {
+	    best.setLastModified(System.currentTimeMillis());
+	}
+	return best;
+    }
+
+    /* fill the writer, then commit(d) to make it an entry */
+    public DigitFileWriter writer(int d)
+    {
+	return new DigitFileWriter(tmp(d), 0, 0);
+    }
+
+    public synchronized void commit(int d)
+    {
+	File f = entry(d);
+	if (!tmp(d).renameTo(f)) {
+	    tmp(d).delete();
+	    return;
+	}
+	evict(f);
+    }
+
+    /* drop what the writer of d wrote, when it is not to become an entry */
+    public synchronized void discard(int d)
+    {
+	tmp(d).delete();
+    }
+
+    /* delete least recently used entries other than keep until under maxBytes */
+    private void evict(File keep)
+    {
+	File[] files = dir.listFiles();
+	long total = 0;
+	int i;
+	if (files == null) {
+	    return;
+	}
+	for (i = 0; i < files.length; i++) {
+	    total += files[i].length();
+	}
+	while (total > maxBytes) {
+	    File oldest = null;
+	    for (i = 0; i < files.length; i++) {
+		if (files[i] != null && !files[i].equals(keep) &&
+		    (oldest == null || files[i].lastModified() < oldest.lastModified())) {
+		    oldest = files[i];
+		}
+	    }
+	    if (oldest == null) {
+		oldest = keep;      /* too big to keep at all */
+	    }
+	    total -= oldest.length();
+	    oldest.delete();
+	    for (i = 0; i < files.length; i++) {
+		if (files[i] != null && files[i].equals(oldest)) {
+		    files[i] = null;
+		}
+	    }
+	    if (oldest == keep) {
+		break;
+	    }
+	}
+    }
+}
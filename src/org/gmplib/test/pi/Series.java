@@ -0,0 +1,410 @@
+package org.gmplib.test.pi;
+
+/**
+ * A series S = sum over k >= 0 of a(k)/b(k) * p(1)...p(k)/(q(1)...q(k)),
+ * with p, q, a and b integers given by k, and the constant computed from
+ * its sum.  Hypergeometric sums it by binary splitting; Chudnovsky.setSeries
+ * runs it in place of the Chudnovsky formula.  The built-in series are
+ * named in NAMES and made by get().
+ */
+public abstract class Series
+{
+    public static final String[] NAMES = {
+	"e", "ln2", "zeta3", "catalan", "ramanujan", "chudnovsky"
+    };
+
+    /* digits summed beyond those asked for */
+    static final int GUARD_DIGITS = 16;
+
+    private final String name;
+    private final double digits_per_term;
+
+    protected Series(String name, double digits_per_term)
+    {
+	this.name = name;
+	this.digits_per_term = digits_per_term;
+    }
+
+    public String name()
+    {
+	return name;
+    }
+
+    /* terms to sum for d correct digits */
+    public int terms(int d)
+    {
+	return (int)((double)(d + GUARD_DIGITS)/digits_per_term) + 2;
+    }
+
+    /* r = p(k) and q(k) for k >= 1 */
+    public abstract <Z, F> void p(MP<Z, F> mp, Z r, long k) throws MPException;
+    public abstract <Z, F> void q(MP<Z, F> mp, Z r, long k) throws MPException;
+
+    /* r = a(k) for k >= 0 */
+    public abstract <Z, F> void a(MP<Z, F> mp, Z r, long k) throws MPException;
+
+    /* whether p is other than 1; when not, P is never computed */
+    public boolean has_p()
+    {
+	return true;
+    }
+
+    /* whether b is other than 1; when not, B is never computed */
+    public boolean has_b()
+    {
+	return false;
+    }
+
+    /* r = b(k) for k >= 0 */
+    public <Z, F> void b(MP<Z, F> mp, Z r, long k)
+        throws MPException
+    {
+	mp.z_set_ui(r, 1);
+    }
+
+    /* x = the constant from s, the sum; both have the working precision */
+    public abstract <Z, F> void finish(Hypergeometric<Z, F> h, F x, F s) throws MPException;
+
+    /* r = c, which may be negative */
+    static <Z, F> void set_si(MP<Z, F> mp, Z r, long c)
+        throws MPException
+    {
+	mp.z_set_ui(r, Math.abs(c));
+	if (c < 0) {
+	    mp.z_neg(r, r);
+	}
+    }
+
+    /* r = c[0]*k^n + c[1]*k^(n-1) + ... + c[n] */
+    static <Z, F> void poly(MP<Z, F> mp, Z r, long k, long... c)
+        throws MPException
+    {
+	int i;
+	set_si(mp, r, c[0]);
+	for (i = 1; i < c.length; i++) {
+	    mp.z_mul_ui(r, r, k);
+	    if (c[i] >= 0) {
+		mp.z_add_ui(r, r, c[i]);
+	    } else {
+		mp.z_neg(r, r);
+		mp.z_add_ui(r, r, -c[i]);
+		mp.z_neg(r, r);
+	    }
+	}
+    }
+
+    /* r = r*(u*k+v)^e, with u*k+v > 0 */
+    static <Z, F> void lin(MP<Z, F> mp, Z r, long u, long k, long v, int e)
+        throws MPException
+    {
+	int i;
+	for (i = 0; i < e; i++) {
+	    mp.z_mul_ui(r, r, u*k+v);
+	}
+    }
+
+    /* the built-in series called name, null if there is none */
+    public static Series get(String name)
+    {
+	if (name.equals("e")) {
+	    return new E();
+	}
+	if (name.equals("ln2")) {
+	    return new Ln2();
+	}
+	if (name.equals("zeta3")) {
+	    return new Zeta3();
+	}
+	if (name.equals("catalan")) {
+	    return new Catalan();
+	}
+	if (name.equals("ramanujan")) {
+	    return new Ramanujan();
+	}
+	if (name.equals("chudnovsky")) {
+	    return new ChudnovskySeries();
+	}
+	return null;
+    }
+
+    /* e = sum 1/k! */
+    static class E extends Series
+    {
+	E()
+	{
+	    super("e", 0);
+	}
+
+	/* the least k with log10(k!) past the digits */
+	public int terms(int d)
+	{
+	    double s = 0;
+	    int k = 1;
+	    while (s < d + GUARD_DIGITS) {
+		s += Math.log10(++k);
+	    }
+	    return k + 1;
+	}
+
+	public boolean has_p()
+	{
+	    return false;
+	}
+
+	public <Z, F> void p(MP<Z, F> mp, Z r, long k)
+	    throws MPException
+	{
+	    mp.z_set_ui(r, 1);
+	}
+
+	public <Z, F> void q(MP<Z, F> mp, Z r, long k)
+	    throws MPException
+	{
+	    mp.z_set_ui(r, k);
+	}
+
+	public <Z, F> void a(MP<Z, F> mp, Z r, long k)
+	    throws MPException
+	{
+	    mp.z_set_ui(r, 1);
+	}
+
+	public <Z, F> void finish(Hypergeometric<Z, F> h, F x, F s)
+	    throws MPException
+	{
+	    h.mp().f_abs(x, s);     /* x = s */
+	}
+    }
+
+    /* ln 2 = 2 atanh(1/3) = 2/3 sum 1/((2k+1) 9^k) */
+    static class Ln2 extends Series
+    {
+	Ln2()
+	{
+	    super("ln2", 0.9542);
+	}
+
+	public boolean has_p()
+	{
+	    return false;
+	}
+
+	public <Z, F> void p(MP<Z, F> mp, Z r, long k)
+	    throws MPException
+	{
+	    mp.z_set_ui(r, 1);
+	}
+
+	public <Z, F> void q(MP<Z, F> mp, Z r, long k)
+	    throws MPException
+	{
+	    mp.z_set_ui(r, 9);
+	}
+
+	public <Z, F> void a(MP<Z, F> mp, Z r, long k)
+	    throws MPException
+	{
+	    mp.z_set_ui(r, 2);
+	}
+
+	public boolean has_b()
+	{
+	    return true;
+	}
+
+	public <Z, F> void b(MP<Z, F> mp, Z r, long k)
+	    throws MPException
+	{
+	    mp.z_set_ui(r, 2*k+1);
+	}
+
+	public <Z, F> void finish(Hypergeometric<Z, F> h, F x, F s)
+	    throws MPException
+	{
+	    h.div_ui(x, s, 3);
+	}
+    }
+
+    /*
+     * Amdeberhan-Zeilberger:
+     * zeta(3) = 1/64 sum (-1)^k k!^10 (205k^2+250k+77) / (2k+1)!^5
+     */
+    static class Zeta3 extends Series
+    {
+	Zeta3()
+	{
+	    super("zeta3", 3.0102);
+	}
+
+	public <Z, F> void p(MP<Z, F> mp, Z r, long k)
+	    throws MPException
+	{
+	    mp.z_set_ui(r, 1);
+	    lin(mp, r, 1, k, 0, 5);
+	    mp.z_neg(r, r);
+	}
+
+	public <Z, F> void q(MP<Z, F> mp, Z r, long k)
+	    throws MPException
+	{
+	    mp.z_set_ui(r, 32);
+	    lin(mp, r, 2, k, 1, 5);
+	}
+
+	public <Z, F> void a(MP<Z, F> mp, Z r, long k)
+	    throws MPException
+	{
+	    poly(mp, r, k, 205, 250, 77);
+	}
+
+	public <Z, F> void finish(Hypergeometric<Z, F> h, F x, F s)
+	    throws MPException
+	{
+	    h.mp().f_div_2exp(x, s, 6);
+	}
+    }
+
+    /*
+     * Lupas: G = 1/64 sum over n >= 1 of
+     * (-1)^(n+1) 256^n (40n^2-24n+3) (2n)!^3 n!^2 / (n^3 (2n-1) (4n)!^2),
+     * here with k = n-1 and the first term's 32/9 taken out.
+     */
+    static class Catalan extends Series
+    {
+	Catalan()
+	{
+	    super("catalan", 0.6020);
+	}
+
+	public <Z, F> void p(MP<Z, F> mp, Z r, long k)
+	    throws MPException
+	{
+	    mp.z_set_ui(r, 32);
+	    lin(mp, r, 1, k, 1, 3);
+	    lin(mp, r, 2, k, 1, 1);
+	    mp.z_neg(r, r);
+	}
+
+	public <Z, F> void q(MP<Z, F> mp, Z r, long k)
+	    throws MPException
+	{
+	    mp.z_set_ui(r, 1);
+	    lin(mp, r, 4, k, 1, 2);
+	    lin(mp, r, 4, k, 3, 2);
+	}
+
+	public <Z, F> void a(MP<Z, F> mp, Z r, long k)
+	    throws MPException
+	{
+	    poly(mp, r, k, 40, 56, 19);
+	}
+
+	public boolean has_b()
+	{
+	    return true;
+	}
+
+	public <Z, F> void b(MP<Z, F> mp, Z r, long k)
+	    throws MPException
+	{
+	    mp.z_set_ui(r, 1);
+	    lin(mp, r, 1, k, 1, 3);
+	    lin(mp, r, 2, k, 1, 1);
+	}
+
+	public <Z, F> void finish(Hypergeometric<Z, F> h, F x, F s)
+	    throws MPException
+	{
+	    h.div_ui(x, s, 18);
+	}
+    }
+
+    /* 1/pi = 2 sqrt(2)/9801 sum (4k)! (1103+26390k) / (k!^4 396^(4k)) */
+    static class Ramanujan extends Series
+    {
+	/* 396^4 in two factors: unsigned long may be 32 bits */
+	private static final long Q2 = 396L*396;
+
+	Ramanujan()
+	{
+	    super("ramanujan", 7.9825);
+	}
+
+	public <Z, F> void p(MP<Z, F> mp, Z r, long k)
+	    throws MPException
+	{
+	    mp.z_set_ui(r, 8);
+	    lin(mp, r, 2, k, -1, 1);
+	    lin(mp, r, 4, k, -3, 1);
+	    lin(mp, r, 4, k, -1, 1);
+	}
+
+	public <Z, F> void q(MP<Z, F> mp, Z r, long k)
+	    throws MPException
+	{
+	    mp.z_set_ui(r, Q2);
+	    mp.z_mul_ui(r, r, Q2);
+	    lin(mp, r, 1, k, 0, 3);
+	}
+
+	public <Z, F> void a(MP<Z, F> mp, Z r, long k)
+	    throws MPException
+	{
+	    poly(mp, r, k, 26390, 1103);
+	}
+
+	public <Z, F> void finish(Hypergeometric<Z, F> h, F x, F s)
+	    throws MPException
+	{
+	    h.sqrt_ui(x, 8);
+	    h.mp().f_mul(x, x, s);
+	    h.ui_div(x, 9801, x);
+	}
+    }
+
+    /*
+     * The series Chudnovsky computes with its own factored binary splitting:
+     * 1/pi = 12/C^(3/2) sum (-1)^k (6k)! (A+Bk) / ((3k)! k!^3 C^(3k))
+     */
+    static class ChudnovskySeries extends Series
+    {
+	ChudnovskySeries()
+	{
+	    super("chudnovsky", Chudnovsky.DIGITS_PER_ITER);
+	}
+
+	public <Z, F> void p(MP<Z, F> mp, Z r, long k)
+	    throws MPException
+	{
+	    mp.z_set_ui(r, 1);
+	    lin(mp, r, 6, k, -5, 1);
+	    lin(mp, r, 2, k, -1, 1);
+	    lin(mp, r, 6, k, -1, 1);
+	    mp.z_neg(r, r);
+	}
+
+	public <Z, F> void q(MP<Z, F> mp, Z r, long k)
+	    throws MPException
+	{
+	    /* C^3/24 as bs has it, in factors that fit 32 bits */
+	    mp.z_set_ui(r, (Chudnovsky.C/24)*(Chudnovsky.C/24));
+	    mp.z_mul_ui(r, r, Chudnovsky.C*24);
+	    lin(mp, r, 1, k, 0, 3);
+	}
+
+	public <Z, F> void a(MP<Z, F> mp, Z r, long k)
+	    throws MPException
+	{
+	    poly(mp, r, k, Chudnovsky.B, Chudnovsky.A);
+	}
+
+	public <Z, F> void finish(Hypergeometric<Z, F> h, F x, F s)
+	    throws MPException
+	{
+	    /* C^(3/2)/12 = 426880 sqrt(10005) */
+	    h.sqrt_ui(x, 10005);
+	    h.mp().f_mul_ui(x, x, 426880);
+	    h.mp().f_div(x, x, s);
+	}
+    }
+}
@@ -0,0 +1,156 @@
+package org.gmplib.test.pi;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * Tuning parameters of the binary splitting in Chudnovsky, and the growth of
+ * multiplication time its progress estimate assumes.  The defaults are the
+ * values of the C gmp-chudnovsky program; Autotune measures better ones
+ * and saves them in a profile, a properties file holding one set per
+ * backend and per serial or parallel run.  A profile written on a machine
+ * with a different processor count or architecture is ignored.
+ */
+public class Tuning
+{
+    public static final double SPLIT_RATIO = 0.5224;
+    public static final int GCD_LEVEL = 4;
+    public static final int BS_MUL_LEAF = 1024;
+    public static final double MUL_EXPONENT = 1.465;   /* Toom-3 */
+
+    public double split_ratio = SPLIT_RATIO;  /* share of the left subtree, 0.5 to 0.75 */
+    public int gcd_level = GCD_LEVEL;         /* fac_remove_gcd at this level and below */
+    public int bs_mul_leaf = BS_MUL_LEAF;     /* bits bs_mul multiplies without splitting */
+    public double mul_exponent = MUL_EXPONENT; /* z_mul time grows as bits^mul_exponent */
+
+    public Tuning copy()
+    {
+	Tuning t = new Tuning();
+	t.split_ratio = split_ratio;
+	t.gcd_level = gcd_level;
+	t.bs_mul_leaf = bs_mul_leaf;
+	t.mul_exponent = mul_exponent;
+	return t;
+    }
+
+    public String toString()
+    {
+	return "split_ratio=" + split_ratio + ", gcd_level=" + gcd_level + ", bs_mul_leaf=" + bs_mul_leaf +
+	    ", mul_exponent=" + mul_exponent;
+    }
+
+    private static String section(String backend, boolean parallel)
+    {
+	return backend + (parallel ? ".parallel." : ".serial.");
+    }
+
+    private static String cpus()
+    {
+	return Integer.toString(Runtime.getRuntime().availableProcessors());
+    }
+
+    private static String arch()
+    {
+	return System.getProperty("os.arch", "");
+    }
+
+    private static Properties read(File f)
+    {
+	Properties p = new Properties();
+	InputStream is = null;
+	try {
+	    is = new FileInputStream(f);
+	    p.load(is);
+	}
+	catch (IOException e) {
+	    p.clear();
+	}
+	catch (IllegalArgumentException e) {
+	    p.clear();
+	}
+	finally {
+	    if (is != null) {
+		try {
+		    is.close();
+		}
+		catch (IOException e) {
+		}
+	    }
+	}
+	if (!cpus().equals(p.getProperty("cpus")) || !arch().equals(p.getProperty("arch"))) {
+	    p.clear();
+	}
+	return p;
+    }
+
+    private static double get(Properties p, String key, double def, double min, double max)
+    {
+	try {
+	    double v = Double.parseDouble(p.getProperty(key, ""));
+	    return (v >= min && v <= max ? v : def);
+	}
+	catch (NumberFormatException e) {
+	    return def;
+	}
+    }
+
+    private static int get(Properties p, String key, int def, int min, int max)
+    {
+	try {
+	    int v = Integer.parseInt(p.getProperty(key, ""));
+	    return (v >= min && v <= max ? v : def);
+	}
+	catch (NumberFormatException e) {
+	    return def;
+	}
+    }
+
+    /* the set for backend from profile f; the defaults where it has none */
+    public static Tuning load(File f, String backend, boolean parallel)
+    {
+	Tuning t = new Tuning();
+	if (f == null || !f.exists()) {
+	    return t;
+	}
+	Properties p = read(f);
+	String s = section(backend, parallel);
+	t.split_ratio = get(p, s + "split_ratio", SPLIT_RATIO, 0.5, 0.75);
+	t.gcd_level = get(p, s + "gcd_level", GCD_LEVEL, 0, 64);
+	t.bs_mul_leaf = get(p, s + "bs_mul_leaf", BS_MUL_LEAF, 64, 1<<20);
+	t.mul_exponent = get(p, s + "mul_exponent", MUL_EXPONENT, 1.0, 1.8);
+	return t;
+    }
+
+    /* store t as the set for backend in profile f, keeping the other sets */
+    public static synchronized void save(File f, String backend, boolean parallel, Tuning t)
+        throws IOException
+    {
+	Properties p = (f.exists() ? read(f) : new Properties());
+	String s = section(backend, parallel);
+	p.setProperty("cpus", cpus());
+	p.setProperty("arch", arch());
+	p.setProperty(s + "split_ratio", Double.toString(t.split_ratio));
+	p.setProperty(s + "gcd_level", Integer.toString(t.gcd_level));
+	p.setProperty(s + "bs_mul_leaf", Integer.toString(t.bs_mul_leaf));
+	p.setProperty(s + "mul_exponent", Double.toString(t.mul_exponent));
+	File tmp = new File(f.getPath() + ".tmp");
+	OutputStream os = new FileOutputStream(tmp);
+	try {
+	    p.store(os, "Chudnovsky tuning profile");
+	}
+	finally {
+	    os.close();
+	}
+	if (!tmp.renameTo(f)) {
+	    f.delete();
+	    if (!tmp.renameTo(f)) {
+		throw new IOException("cannot write " + f);
+	    }
+	}
+    }
+}
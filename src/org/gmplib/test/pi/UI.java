@@ -1,7 +1,10 @@
 package org.gmplib.test.pi;
 
+import java.io.File;
+
 public interface UI {
 
     void display(String line);
-    Object getRef();
+    /* decimal text of pi to check results against, or null */
+    File getReference();
 }